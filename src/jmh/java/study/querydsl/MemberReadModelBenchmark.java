@@ -0,0 +1,83 @@
+package study.querydsl;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+import study.querydsl.repository.MemberJpaRepository;
+import study.querydsl.repository.MemberReadModel;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * username -> MemberTeamDto 조회를 DB 경로와 메모리 읽기 모델로 비교한다.
+ * ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MemberReadModelBenchmark {
+
+    @Param({"10000"})
+    int memberCount;
+
+    ConfigurableApplicationContext context;
+    MemberJpaRepository memberJpaRepository;
+    MemberReadModel readModel;
+
+    @Setup
+    public void setup() {
+        context = SpringApplication.run(QuerydslApplication.class,
+                "--spring.profiles.active=bench",
+                "--member.read-model.enabled=true",
+                "--logging.level.org.hibernate.SQL=info",
+                "--decorator.datasource.p6spy.enable-logging=false");
+        memberJpaRepository = context.getBean(MemberJpaRepository.class);
+        readModel = context.getBean(MemberReadModel.class);
+
+        EntityManager em = context.getBean(EntityManager.class);
+        new TransactionTemplate(context.getBean(org.springframework.transaction.PlatformTransactionManager.class))
+                .executeWithoutResult(status -> {
+                    Team teamA = new Team("teamA");
+                    Team teamB = new Team("teamB");
+                    em.persist(teamA);
+                    em.persist(teamB);
+                    for (int i = 0; i < memberCount; i++) {
+                        memberJpaRepository.save(new Member("member" + i, i % 100, i % 2 == 0 ? teamA : teamB));
+                    }
+                });
+        readModel.rebuild();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<MemberTeamDto> database() {
+        return memberJpaRepository.search(randomCondition());
+    }
+
+    @Benchmark
+    public List<MemberTeamDto> readModel() {
+        return readModel.search(randomCondition());
+    }
+
+    private MemberSearchCondition randomCondition() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("member" + ThreadLocalRandom.current().nextInt(memberCount));
+        return condition;
+    }
+}
@@ -0,0 +1,107 @@
+package study.querydsl;
+
+import com.querydsl.core.types.Predicate;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.QMember;
+import study.querydsl.entity.Team;
+import study.querydsl.repository.SubQueryRewriter;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.querydsl.jpa.JPAExpressions.select;
+import static study.querydsl.entity.QMember.member;
+
+/**
+ * 서브쿼리를 그대로 실행한 경우와 SubQueryRewriter 로 두 번 나눠 실행한 경우를 비교한다.
+ * ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SubQueryRewriteBenchmark {
+
+    @Param({"10000"})
+    int memberCount;
+
+    ConfigurableApplicationContext context;
+    EntityManager em;
+    SubQueryRewriter rewriter;
+    TransactionTemplate tx;
+
+    QMember memberSub = new QMember("memberSub");
+
+    @Setup
+    public void setup() {
+        context = SpringApplication.run(QuerydslApplication.class,
+                "--spring.profiles.active=bench",
+                "--logging.level.org.hibernate.SQL=info",
+                "--decorator.datasource.p6spy.enable-logging=false");
+        em = context.getBean(EntityManager.class);
+        rewriter = context.getBean(SubQueryRewriter.class);
+        tx = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        tx.executeWithoutResult(status -> {
+            Team team = new Team("teamA");
+            em.persist(team);
+            for (int i = 0; i < memberCount; i++) {
+                em.persist(new Member("member" + i, i % 100, team));
+                if (i % 500 == 0) {
+                    em.flush();
+                    em.clear();
+                    team = em.getReference(Team.class, team.getId());
+                }
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Member> avgSubQuery() {
+        return fetch(avgPredicate());
+    }
+
+    @Benchmark
+    public List<Member> avgRewritten() {
+        return tx.execute(status -> new JPAQueryFactory(em).selectFrom(member)
+                .where(rewriter.rewrite(avgPredicate()))
+                .fetch());
+    }
+
+    @Benchmark
+    public List<Member> inSubQuery() {
+        return fetch(inPredicate());
+    }
+
+    @Benchmark
+    public List<Member> inRewritten() {
+        return tx.execute(status -> new JPAQueryFactory(em).selectFrom(member)
+                .where(rewriter.rewrite(inPredicate()))
+                .fetch());
+    }
+
+    private List<Member> fetch(Predicate predicate) {
+        return tx.execute(status -> new JPAQueryFactory(em).selectFrom(member).where(predicate).fetch());
+    }
+
+    private Predicate avgPredicate() {
+        return member.age.goe(select(memberSub.age.avg()).from(memberSub));
+    }
+
+    private Predicate inPredicate() {
+        return member.age.in(select(memberSub.age).from(memberSub).where(memberSub.age.gt(90)));
+    }
+}
@@ -0,0 +1,44 @@
+package study.querydsl.cache;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.UUID;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * cache.invalidation.bus 가 loopback(기본값)이면 loopback 버스를 쓴다. (노드 하나)
+ * Redis, JMS 같은 다른 버스를 쓰려면 cache.invalidation.bus 를 다른 값으로 주고 그 값을 조건으로 빈을 등록한다.
+ * cache.node-id 를 주지 않으면 시작할 때마다 새 id 를 만든다.
+ */
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "cache.invalidation.bus", havingValue = "loopback", matchIfMissing = true)
+    public CacheInvalidationBus cacheInvalidationBus() {
+        return new LoopbackCacheInvalidationBus();
+    }
+
+    @Bean
+    public EntityCacheInvalidator entityCacheInvalidator(EntityManagerFactory emf, CacheInvalidationBus bus,
+                                                         @Value("${cache.node-id:}") String nodeId) {
+        EntityCacheInvalidator invalidator = new EntityCacheInvalidator(
+                hasText(nodeId) ? nodeId : UUID.randomUUID().toString(), emf.getCache(), bus);
+
+        EventListenerRegistry registry = emf.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        CacheInvalidationEventListener listener = new CacheInvalidationEventListener(invalidator);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+        return invalidator;
+    }
+}
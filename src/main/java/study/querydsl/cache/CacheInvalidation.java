@@ -0,0 +1,21 @@
+package study.querydsl.cache;
+
+import lombok.Value;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 다른 노드에 보내는 2차 캐시 무효화 메시지. ids 가 비어 있으면 엔티티 영역 전체를 비운다.
+ * 전송 방식에 상관없이 직렬화할 수 있도록 클래스 대신 엔티티 클래스 이름을 담는다.
+ */
+@Value
+public class CacheInvalidation implements Serializable {
+    String origin;
+    String entityName;
+    List<Serializable> ids;
+
+    public boolean isEntireRegion() {
+        return ids.isEmpty();
+    }
+}
@@ -0,0 +1,23 @@
+package study.querydsl.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * 노드 사이에 CacheInvalidation 을 전달하는 통로. Redis pub/sub, JMS 같은 구현으로 바꿔 끼울 수 있다.
+ * 보낸 노드 자신에게도 전달될 수 있으므로 받는 쪽에서 origin 을 확인한다.
+ */
+public interface CacheInvalidationBus {
+
+    void publish(CacheInvalidation invalidation);
+
+    void subscribe(Consumer<CacheInvalidation> listener);
+
+    void unsubscribe(Consumer<CacheInvalidation> listener);
+
+    /**
+     * 다른 노드에도 전달하는지. false 면 같은 DB 에 쓰는 노드가 이 노드 하나뿐이다.
+     */
+    default boolean isDistributed() {
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package study.querydsl.cache;
+
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.util.List;
+
+/**
+ * 캐시되는 엔티티가 수정/삭제되고 커밋된 뒤에 다른 노드에 무효화를 보낸다.
+ * 새로 저장된 엔티티는 다른 노드 캐시에 있을 수 없으므로 보내지 않는다.
+ */
+class CacheInvalidationEventListener implements PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+    private final EntityCacheInvalidator invalidator;
+
+    CacheInvalidationEventListener(EntityCacheInvalidator invalidator) {
+        this.invalidator = invalidator;
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        invalidator.publish(event.getPersister().getMappedClass(), List.of(event.getId()));
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        invalidator.publish(event.getPersister().getMappedClass(), List.of(event.getId()));
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return persister.canWriteToCache();
+    }
+}
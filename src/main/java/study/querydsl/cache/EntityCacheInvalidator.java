@@ -0,0 +1,111 @@
+package study.querydsl.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import study.querydsl.entity.Member;
+import study.querydsl.repository.MemberBulkUpdatedEvent;
+
+import javax.persistence.Cache;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 이 노드의 2차 캐시(javax.persistence.Cache)를 비우고 같은 무효화를 버스로 다른 노드에 알린다.
+ * 엔티티를 통한 수정/삭제는 Hibernate 가 이 노드의 캐시를 직접 고치므로 다른 노드에만 알리면 되고 (CacheInvalidationEventListener),
+ * JDBC 나 Querydsl bulk update/delete 처럼 영속성 컨텍스트를 거치지 않은 변경은 커밋 뒤에 evict/evictAll 을 불러야 한다.
+ * 지금은 MemberUpdateBuffer 와 MemberArchiver 가 쓴 id 를 직접 비우고, MemberJpaRepository 의 bulk update 는
+ * MemberBulkUpdatedEvent 로 Member 영역 전체를 비운다. member/team 에 쓰는 bulk DML 을 추가하면 둘 중 하나를 거쳐야 한다.
+ */
+@Slf4j
+public class EntityCacheInvalidator {
+
+    private final String nodeId;
+    private final Cache cache;
+    private final CacheInvalidationBus bus;
+    //unsubscribe 할 때 같은 객체를 넘겨야 하므로 메서드 참조를 한 번만 만든다
+    private final Consumer<CacheInvalidation> listener = this::onInvalidation;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+
+    public EntityCacheInvalidator(String nodeId, Cache cache, CacheInvalidationBus bus) {
+        this.nodeId = nodeId;
+        this.cache = cache;
+        this.bus = bus;
+        bus.subscribe(listener);
+    }
+
+    public void evict(Class<?> entity, Collection<? extends Serializable> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (Serializable id : ids) {
+            cache.evict(entity, id);
+        }
+        publish(entity, new ArrayList<>(ids));
+    }
+
+    public void evictAll(Class<?> entity) {
+        cache.evict(entity);
+        publish(entity, List.of());
+    }
+
+    /**
+     * 이 노드의 캐시는 이미 맞는 상태일 때 다른 노드에만 알린다.
+     */
+    public void publish(Class<?> entity, List<Serializable> ids) {
+        bus.publish(new CacheInvalidation(nodeId, entity.getName(), ids));
+        published.incrementAndGet();
+    }
+
+    //bulk 쿼리가 어느 회원을 바꿨는지 모르므로 영역 전체를 비운다. 롤백되어도 비우는 것은 해가 없다
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMPLETION, fallbackExecution = true)
+    public void onBulkUpdated(MemberBulkUpdatedEvent event) {
+        evictAll(Member.class);
+    }
+
+    private void onInvalidation(CacheInvalidation invalidation) {
+        if (nodeId.equals(invalidation.getOrigin())) {
+            return;
+        }
+        Class<?> entity;
+        try {
+            entity = Class.forName(invalidation.getEntityName());
+        } catch (ClassNotFoundException e) {
+            log.warn("unknown entity in cache invalidation. invalidation={}", invalidation);
+            return;
+        }
+        if (invalidation.isEntireRegion()) {
+            cache.evict(entity);
+        } else {
+            for (Serializable id : invalidation.getIds()) {
+                cache.evict(entity, id);
+            }
+        }
+        received.incrementAndGet();
+    }
+
+    /**
+     * 버스 구독을 끊는다. 빈으로 등록된 것은 컨텍스트가 닫힐 때 불린다.
+     */
+    public void close() {
+        bus.unsubscribe(listener);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+}
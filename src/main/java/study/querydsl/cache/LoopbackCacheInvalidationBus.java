@@ -0,0 +1,43 @@
+package study.querydsl.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 같은 JVM 안의 구독자에게 바로 전달하는 버스. 노드가 하나일 때와, 테스트에서 여러 노드를 흉내낼 때 쓴다.
+ */
+@Slf4j
+public class LoopbackCacheInvalidationBus implements CacheInvalidationBus {
+
+    private final List<Consumer<CacheInvalidation>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        for (Consumer<CacheInvalidation> listener : listeners) {
+            try {
+                listener.accept(invalidation);
+            } catch (RuntimeException e) {
+                //한 노드의 실패가 다른 노드의 무효화를 막으면 안 된다
+                log.warn("cache invalidation listener failed. invalidation={}", invalidation, e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<CacheInvalidation> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(Consumer<CacheInvalidation> listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public boolean isDistributed() {
+        return false;
+    }
+}
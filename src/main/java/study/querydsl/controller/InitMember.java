@@ -1,25 +1,134 @@
 package study.querydsl.controller;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import study.querydsl.entity.Member;
 import study.querydsl.entity.Team;
+import study.querydsl.repository.MemberBulkUpdatedEvent;
+import study.querydsl.startup.StartupReport;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * init.mode=blocking(기본) 이면 기동 중에 데이터를 넣고,
+ * init.mode=background 이면 기동을 먼저 끝내고(ApplicationReadyEvent) 별도 스레드에서 넣는다.
+ * 넣는 동안에는 readiness 를 REFUSING_TRAFFIC 으로 두고, 끝나면 읽기 모델(MemberReadModel)을 다시 읽게 한 뒤 ACCEPTING_TRAFFIC 으로 바꾼다.
+ */
+@Slf4j
 @Profile("local")
 @Component
 @RequiredArgsConstructor
 public class InitMember {
 
     private final InitMemberService initMemberService;
+    private final ApplicationStartup applicationStartup;
+    private final ApplicationEventPublisher publisher;
+
+    @Value("${init.mode:blocking}")
+    private String mode;
+    @Value("${init.member-count:100}")
+    private int memberCount;
+    @Value("${init.batch-size:100}")
+    private int batchSize;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "init-member");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean seeded;
+    //성공과 상관없이 background seed 가 끝났는지
+    private volatile boolean finished;
+
     @PostConstruct
     public void init(){
-        initMemberService.init();
+        if(!isBackground()){
+            seed();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initInBackground(){
+        if(isBackground()){
+            executor.execute(this::seedInBackground);
+        }
+    }
+
+    /**
+     * Spring Boot 는 ApplicationReadyEvent 다음에 ACCEPTING_TRAFFIC 을 알리므로 그걸 받고 나서 다시 REFUSING_TRAFFIC 으로 돌린다.
+     * 순서가 같으면 먼저 등록된 ApplicationAvailabilityBean 이 받은 뒤에 여기가 불린다.
+     */
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @EventListener
+    public synchronized void refuseUntilSeeded(AvailabilityChangeEvent<ReadinessState> event){
+        if(isBackground() && !finished && event.getSource() != this
+                && event.getState() == ReadinessState.ACCEPTING_TRAFFIC){
+            AvailabilityChangeEvent.publish(publisher, this, ReadinessState.REFUSING_TRAFFIC);
+        }
+    }
+
+    public boolean isSeeded(){
+        return seeded;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private boolean isBackground(){
+        return "background".equals(mode);
+    }
+
+    private void seedInBackground(){
+        try {
+            seed();
+            //seed 가 쓴 회원은 MemberSavedEvent 를 거치지 않았으므로 읽기 모델이 다시 읽는다
+            publisher.publishEvent(new MemberBulkUpdatedEvent(memberCount));
+        } catch (RuntimeException e) {
+            //한 트랜잭션이라 모두 롤백되었으므로 빈 데이터로 받는다
+            log.error("background seeding failed", e);
+        } finally {
+            accept();
+        }
+    }
+
+    private synchronized void accept(){
+        finished = true;
+        AvailabilityChangeEvent.publish(publisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+    }
+
+    private void seed(){
+        StartupStep step = applicationStartup.start(StartupReport.SEED_STEP)
+                .tag("members", String.valueOf(memberCount));
+        long start = System.currentTimeMillis();
+        try {
+            initMemberService.init(memberCount, batchSize);
+            seeded = true;
+            log.info("seeded {} members in {}ms", memberCount, System.currentTimeMillis() - start);
+        } finally {
+            step.end();
+        }
     }
 
     @Component
@@ -27,15 +136,22 @@ public class InitMember {
         @PersistenceContext
         private EntityManager em;
 
+        //batchSize 마다 flush/clear 해서 insert 가 jdbc batch 로 나가고 영속성 컨텍스트가 커지지 않게 한다
         @Transactional
-        public void init(){
+        public void init(int memberCount, int batchSize){
             Team teamA = new Team("teamA");
             Team teamB = new Team("teamB");
             em.persist(teamA);
             em.persist(teamB);
-            for(int i=0; i<100; i++){
+            for(int i=0; i<memberCount; i++){
                 Team selectTeam = i%2 ==0 ? teamA: teamB;
                 em.persist(new Member("member"+i, i, selectTeam));
+                if((i+1)%batchSize==0){
+                    em.flush();
+                    em.clear();
+                    teamA = em.getReference(Team.class, teamA.getId());
+                    teamB = em.getReference(Team.class, teamB.getId());
+                }
             }
         }
     }
@@ -1,22 +1,140 @@
 package study.querydsl.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import study.querydsl.deadline.DeadlineContext;
+import study.querydsl.deadline.RequestCancelledException;
+import study.querydsl.deadline.RequestDeadline;
+import study.querydsl.deadline.RequestDeadlines;
 import study.querydsl.dto.MemberSearchCondition;
 import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.TeamMembersDto;
 import study.querydsl.repository.MemberJpaRepository;
+import study.querydsl.repository.MemberSearchCoalescer;
+import study.querydsl.repository.MemberUpdateBuffer;
+import study.querydsl.repository.TeamJpaRepository;
+import study.querydsl.repository.UnsupportedSortException;
 
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @RestController
 @RequiredArgsConstructor
 public class MemberController {
 
     private final MemberJpaRepository memberJpaRepository;
+    private final MemberSearchCoalescer memberSearchCoalescer;
+    private final TeamJpaRepository teamJpaRepository;
+    private final RequestDeadlines requestDeadlines;
+    private final MemberUpdateBuffer memberUpdateBuffer;
 
     @GetMapping("/v1/members")
-    public List<MemberTeamDto> searchMemberV1(MemberSearchCondition condition){
-        return memberJpaRepository.search(condition);
+    public WebAsyncTask<List<MemberTeamDto>> searchMemberV1(MemberSearchCondition condition,
+                                                           @RequestHeader(value = RequestDeadlines.HEADER, required = false) Long timeoutMillis){
+        return withDeadline(timeoutMillis, () -> memberSearchCoalescer.search(condition));
+    }
+
+    //sort=age,desc&sort=username,asc&nullsLast=true&size=20 처럼 허용된 정렬(MemberSort)만 받는다
+    @GetMapping("/v2/members")
+    public WebAsyncTask<List<MemberTeamDto>> searchMemberV2(MemberSearchCondition condition, Sort sort,
+                                                           @RequestParam(defaultValue = "false") boolean nullsLast,
+                                                           @RequestParam(defaultValue = "20") int size,
+                                                           @RequestHeader(value = RequestDeadlines.HEADER, required = false) Long timeoutMillis){
+        Sort memberSort = !nullsLast ? sort : Sort.by(sort.stream()
+                .map(order -> order.getProperty().equals("username") ? order.nullsLast() : order)
+                .collect(Collectors.toList()));
+        return withDeadline(timeoutMillis,
+                () -> memberJpaRepository.searchTop(condition, memberSort, Math.min(Math.max(size, 1), 1000)));
+    }
+
+    @ExceptionHandler(UnsupportedSortException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(UnsupportedSortException e){
+        return e.getMessage();
+    }
+
+    /**
+     * 한 줄에 회원 하나씩 json 으로 내려준다. 클라이언트가 읽는 속도만큼만 DB 에서 가져온다.
+     * 마감 시간은 스트림 전체에 걸린다. 지나면 다음 chunk 를 조회하지 않고 끝나며, 클라이언트가 끊으면 실행 중인 chunk 쿼리를 취소한다.
+     * 회원이 많으면 X-Request-Timeout 을 request.timeout.max-ms 까지 늘려서 보낸다.
+     */
+    @GetMapping(value = "/v1/members/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MemberTeamDto> streamMemberV1(MemberSearchCondition condition,
+                                              @RequestParam(defaultValue = "100") int chunkSize,
+                                              @RequestHeader(value = RequestDeadlines.HEADER, required = false) Long timeoutMillis){
+        RequestDeadline deadline = requestDeadlines.start(timeoutMillis);
+        return DeadlineContext.call(deadline,
+                        () -> memberJpaRepository.searchStream(condition, Math.min(Math.max(chunkSize, 1), 1000)))
+                .doOnCancel(() -> requestDeadlines.abort(deadline))
+                .doOnError(e -> {
+                    if (deadline.remainingMillis() == 0) {
+                        requestDeadlines.timeout(deadline);
+                    }
+                })
+                .doFinally(signal -> deadline.complete());
+    }
+
+    /**
+     * 이벤트 피드가 보내는 나이/팀 변경. 버퍼(MemberUpdateBuffer)에 모아 두었다가 batch 로 반영하므로 202 를 돌려준다.
+     * age, teamId 중 하나는 있어야 한다.
+     */
+    @PostMapping("/v1/members/{memberId}/changes")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void changeMemberV1(@PathVariable Long memberId,
+                               @RequestParam(required = false) Integer age,
+                               @RequestParam(required = false) Long teamId){
+        if(age == null && teamId == null){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "age or teamId is required");
+        }
+        if(age != null){
+            memberUpdateBuffer.changeAge(memberId, age);
+        }
+        if(teamId != null){
+            memberUpdateBuffer.changeTeam(memberId, teamId);
+        }
+    }
+
+    //page=0&size=20. 팀 단위로 페이징하고 팀마다 소속 회원 전체를 내려준다. size 는 100 까지이고 offset 도 줄인 size 로 계산한다
+    @GetMapping("/v1/teams")
+    public WebAsyncTask<List<TeamMembersDto>> teamsWithMembersV1(Pageable pageable,
+                                                                @RequestHeader(value = RequestDeadlines.HEADER, required = false) Long timeoutMillis){
+        Pageable page = PageRequest.of(pageable.getPageNumber(), Math.min(pageable.getPageSize(), 100));
+        return withDeadline(timeoutMillis,
+                () -> teamJpaRepository.findTeamsWithMembers(page.getOffset(), page.getPageSize()));
+    }
+
+    /**
+     * X-Request-Timeout(밀리초) 헤더나 기본값으로 마감 시간을 정하고 요청 스레드 밖에서 실행한다.
+     * 마감 시간이 지나면 504 를 돌려주고, 클라이언트가 끊으면 실행 중인 쿼리를 취소한다.
+     */
+    private <T> WebAsyncTask<T> withDeadline(Long timeoutMillis, Supplier<T> work){
+        RequestDeadline deadline = requestDeadlines.start(timeoutMillis);
+        WebAsyncTask<T> task = new WebAsyncTask<>(deadline.remainingMillis(), () -> DeadlineContext.call(deadline, work));
+        task.onTimeout(() -> {
+            requestDeadlines.timeout(deadline);
+            throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "request deadline exceeded");
+        });
+        task.onError(() -> {
+            requestDeadlines.abort(deadline);
+            throw new RequestCancelledException("request aborted");
+        });
+        task.onCompletion(deadline::complete);
+        return task;
     }
 }
@@ -0,0 +1,32 @@
+package study.querydsl.deadline;
+
+import java.util.function.Supplier;
+
+/**
+ * 현재 스레드에서 처리 중인 요청의 마감 시간. 리포지토리가 쿼리를 만들 때 이 값을 본다.
+ */
+public final class DeadlineContext {
+
+    private static final ThreadLocal<RequestDeadline> CURRENT = new ThreadLocal<>();
+
+    private DeadlineContext() {
+    }
+
+    public static RequestDeadline current() {
+        return CURRENT.get();
+    }
+
+    public static <T> T call(RequestDeadline deadline, Supplier<T> task) {
+        RequestDeadline previous = CURRENT.get();
+        CURRENT.set(deadline);
+        try {
+            return task.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package study.querydsl.deadline;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequiredArgsConstructor
+public class DeadlineController {
+
+    private final RequestDeadlines requestDeadlines;
+
+    @GetMapping("/admin/deadlines")
+    public Map<String, Long> deadlines(){
+        return requestDeadlines.metrics();
+    }
+}
@@ -0,0 +1,15 @@
+package study.querydsl.deadline;
+
+/**
+ * 요청 마감 시간이 지났거나 클라이언트가 요청을 버려서 작업을 그만둘 때 던진다.
+ */
+public class RequestCancelledException extends RuntimeException {
+
+    public RequestCancelledException(String message) {
+        super(message);
+    }
+
+    public RequestCancelledException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,99 @@
+package study.querydsl.deadline;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 요청 하나의 마감 시각과 지금 쿼리를 실행 중인 Hibernate 세션.
+ * cancel 은 다른 스레드에서 불러도 되고, 세션이 실행 중인 statement 를 Statement.cancel 로 멈춘다. (Session.cancelQuery)
+ * statement 가 실행되기 직전에 취소되면 멈추지 못하고, 그 쿼리는 JDBC 쿼리 타임아웃(남은 시간)까지만 실행된다.
+ */
+@Slf4j
+public class RequestDeadline {
+
+    public enum State {
+        ACTIVE, COMPLETED, TIMED_OUT, ABORTED
+    }
+
+    private final long deadlineNanos;
+    private final AtomicReference<State> state = new AtomicReference<>(State.ACTIVE);
+    private volatile Session session;
+
+    public RequestDeadline(long timeoutMillis) {
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * JDBC 쿼리 타임아웃은 초 단위라서 남은 시간을 올림한다. 마감이 이미 지났으면 쿼리를 시작하지 않는다.
+     */
+    public int queryTimeoutSeconds() {
+        check();
+        long remaining = remainingMillis();
+        if (remaining == 0) {
+            throw new RequestCancelledException("request deadline exceeded");
+        }
+        return (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(remaining + 999));
+    }
+
+    public void check() {
+        State current = state.get();
+        if (current == State.TIMED_OUT || current == State.ABORTED) {
+            throw new RequestCancelledException("request " + current.name().toLowerCase());
+        }
+    }
+
+    /**
+     * 이 세션에서 실행하는 쿼리를 cancel 대상으로 삼는다. 이미 취소되었으면 바로 멈춘다.
+     */
+    public void attach(Session session) {
+        this.session = session;
+        if (isCancelled()) {
+            cancelQuery();
+        }
+    }
+
+    /**
+     * @return 이번 호출로 취소되었으면 true. 이미 끝났거나 취소된 요청이면 false
+     */
+    boolean cancel(State reason) {
+        if (!state.compareAndSet(State.ACTIVE, reason)) {
+            return false;
+        }
+        cancelQuery();
+        return true;
+    }
+
+    public void complete() {
+        state.compareAndSet(State.ACTIVE, State.COMPLETED);
+        session = null;
+    }
+
+    public boolean isCancelled() {
+        State current = state.get();
+        return current == State.TIMED_OUT || current == State.ABORTED;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    private void cancelQuery() {
+        Session target = session;
+        if (target == null) {
+            return;
+        }
+        try {
+            target.cancelQuery();
+        } catch (RuntimeException e) {
+            //이미 끝나서 닫힌 statement 면 실패해도 상관없다
+            log.debug("query cancel failed", e);
+        }
+    }
+}
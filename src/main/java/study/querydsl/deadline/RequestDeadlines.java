@@ -0,0 +1,81 @@
+package study.querydsl.deadline;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 요청 마감 시간을 만들고 취소된 작업 수를 센다.
+ * 헤더(X-Request-Timeout, 밀리초)가 없으면 request.timeout.default-ms, 있어도 request.timeout.max-ms 를 넘지 않는다.
+ * 취소로 아낀 커넥션 시간은 취소 시점부터 마감 시각까지의 합이다. 쿼리가 마감 전에 끝났을 수도 있으므로 상한값이다.
+ */
+@Component
+public class RequestDeadlines {
+
+    public static final String HEADER = "X-Request-Timeout";
+
+    private final long defaultMillis;
+    private final long maxMillis;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+    private final AtomicLong savedConnectionMillis = new AtomicLong();
+
+    public RequestDeadlines(@Value("${request.timeout.default-ms:5000}") long defaultMillis,
+                            @Value("${request.timeout.max-ms:30000}") long maxMillis) {
+        this.defaultMillis = defaultMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    public RequestDeadline start(Long requestedMillis) {
+        long timeout = requestedMillis == null || requestedMillis <= 0 ? defaultMillis : Math.min(requestedMillis, maxMillis);
+        started.incrementAndGet();
+        return new RequestDeadline(timeout);
+    }
+
+    public void timeout(RequestDeadline deadline) {
+        if (deadline.cancel(RequestDeadline.State.TIMED_OUT)) {
+            timedOut.incrementAndGet();
+        }
+    }
+
+    /**
+     * 클라이언트가 연결을 끊었을 때. 남은 시간만큼 커넥션을 붙잡지 않게 된다.
+     */
+    public void abort(RequestDeadline deadline) {
+        long remaining = deadline.remainingMillis();
+        if (deadline.cancel(RequestDeadline.State.ABORTED)) {
+            aborted.incrementAndGet();
+            savedConnectionMillis.addAndGet(remaining);
+        }
+    }
+
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    public long getAbortedCount() {
+        return aborted.get();
+    }
+
+    public long getSavedConnectionMillis() {
+        return savedConnectionMillis.get();
+    }
+
+    public Map<String, Long> metrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("started", getStartedCount());
+        metrics.put("timedOut", getTimedOutCount());
+        metrics.put("aborted", getAbortedCount());
+        metrics.put("savedConnectionMillis", getSavedConnectionMillis());
+        return metrics;
+    }
+}
@@ -2,11 +2,36 @@ package study.querydsl.dto;
 
 import lombok.Data;
 
+import static org.springframework.util.StringUtils.hasText;
+
 @Data
 public class MemberSearchCondition {
-    //회원명, 팀명, 나이(ageGoe,ageLoe)
+    //회원명, 팀 id, 팀명, 나이(ageGoe,ageLoe)
     private String username;
+    //username 부분 검색. UsernameTrigramIndex 의 최소 길이보다 짧으면 like 검색이 된다
+    private String usernameContains;
+    private Long teamId;
     private String teamName;
     private Integer ageGoe;
     private Integer ageLoe;
+    //"0~20살", "21~30", "기타". 저장된 age_bracket 컬럼(DerivedColumns.AGE_BRACKET)으로 찾는다
+    private String ageBracket;
+    //true 면 member_archive 로 옮겨진 회원도 찾는다
+    private boolean includeArchived;
+
+    /**
+     * 빈 문자열은 조건이 없는 것과 같으므로 null 로 바꾼 복사본. 같은 검색인지 비교할 때 쓴다.
+     */
+    public MemberSearchCondition normalized() {
+        MemberSearchCondition normalized = new MemberSearchCondition();
+        normalized.setUsername(hasText(username) ? username : null);
+        normalized.setUsernameContains(hasText(usernameContains) ? usernameContains : null);
+        normalized.setTeamId(teamId);
+        normalized.setTeamName(hasText(teamName) ? teamName : null);
+        normalized.setAgeGoe(ageGoe);
+        normalized.setAgeLoe(ageLoe);
+        normalized.setAgeBracket(hasText(ageBracket) ? ageBracket : null);
+        normalized.setIncludeArchived(includeArchived);
+        return normalized;
+    }
 }
@@ -0,0 +1,39 @@
+package study.querydsl.entity;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * MemberArchiver 가 옮겨둔 오래된 회원. 컬럼은 member 와 같고 member_id 도 그대로 쓴다.
+ * team 외래키는 그대로 유지된다.
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString(of={"id", "username", "age"})
+@Table(name = "member_archive")
+public class ArchivedMember {
+
+    @Id
+    @Column(name="member_id")
+    private Long id;
+
+    private String username;
+    private int age;
+
+    @Column(name = "age_bracket")
+    private String ageBracket;
+    @Column(name = "username_age")
+    private String usernameAge;
+    @Column(name = "username_short")
+    private String usernameShort;
+
+    private LocalDateTime lastActiveAt;
+    private LocalDateTime archivedAt;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name="team_id")
+    private Team team;
+}
@@ -1,13 +1,27 @@
 package study.querydsl.entity;
 
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
+import java.time.LocalDateTime;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Getter@Setter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 @ToString(of={"id", "username", "age"})
+@Table(indexes = {
+        //MemberSort 의 정렬 순서와 같게 유지한다
+        @Index(name = "idx_member_username", columnList = "username"),
+        @Index(name = "idx_member_age_username", columnList = "age asc, username asc"),
+        @Index(name = "idx_member_age_desc_username", columnList = "age desc, username asc"),
+        @Index(name = "idx_member_age_bracket", columnList = "age_bracket"),
+        @Index(name = "idx_member_username_age", columnList = "username_age"),
+        @Index(name = "idx_member_username_short", columnList = "username_short")
+})
 public class Member {
 
     @Id@GeneratedValue
@@ -17,6 +31,21 @@ public class Member {
     private String username;
     private int age;
 
+    //DerivedColumns 의 식을 저장해둔 컬럼. 저장/수정할 때 다시 계산한다
+    @Setter(AccessLevel.NONE)
+    @Column(name = "age_bracket")
+    private String ageBracket;
+    @Setter(AccessLevel.NONE)
+    @Column(name = "username_age")
+    private String usernameAge;
+    @Setter(AccessLevel.NONE)
+    @Column(name = "username_short")
+    private String usernameShort;
+
+    //이 시각 이후로 변경이 없으면 MemberArchiver 가 member_archive 로 옮긴다
+    @Setter(AccessLevel.NONE)
+    private LocalDateTime lastActiveAt;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="team_id")
     private Team team;
@@ -36,6 +65,37 @@ public class Member {
         }
     }
 
+    @PrePersist
+    @PreUpdate
+    private void beforeSave() {
+        this.lastActiveAt = LocalDateTime.now();
+        refreshDerivedColumns();
+    }
+
+    private void refreshDerivedColumns() {
+        this.ageBracket = ageBracketOf(age);
+        this.usernameAge = usernameAgeOf(username, age);
+        this.usernameShort = usernameShortOf(username);
+    }
+
+    public static String ageBracketOf(int age) {
+        if (age >= 0 && age <= 20) {
+            return "0~20살";
+        }
+        if (age >= 21 && age <= 30) {
+            return "21~30";
+        }
+        return "기타";
+    }
+
+    public static String usernameAgeOf(String username, int age) {
+        return username == null ? null : username + "_" + age;
+    }
+
+    public static String usernameShortOf(String username) {
+        return username == null ? null : username.replace("member", "M");
+    }
+
     private void changeTeam(Team team) {
         this.team=team;
         team.getMembers().add(this);
@@ -0,0 +1,148 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.support.ReplaceVisitor;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.TemplateExpression;
+import com.querydsl.core.types.dsl.CaseBuilder;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.StringExpression;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAUpdateClause;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static study.querydsl.entity.QMember.member;
+
+/**
+ * 행마다 계산하던 식과 그 값을 저장해둔 Member 컬럼의 짝.
+ * rewrite 에 넘긴 식 안에서 같은 식(Querydsl 식은 구조가 같으면 equals)을 찾아 저장된 컬럼으로 바꾼다.
+ * 값 계산은 Member.ageBracketOf, usernameAgeOf, usernameShortOf 와 같아야 한다.
+ * <p>
+ * MemberJpaRepository 는 조회 쿼리를 모두 rewrite(JPAQuery) 에 통과시키므로 검색 조건에 식을 그대로 써도 저장된 컬럼을 읽는다.
+ * 저장된 값은 엔티티를 통한 저장/수정이면 Member 의 @PrePersist/@PreUpdate 가,
+ * Querydsl bulk update 는 refresh 가, MemberUpdateBuffer 의 JDBC update 는 직접 다시 계산한다.
+ */
+public final class DerivedColumns {
+
+    public static final StringExpression AGE_BRACKET = new CaseBuilder()
+            .when(member.age.between(0, 20)).then("0~20살")
+            .when(member.age.between(21, 30)).then("21~30")
+            .otherwise("기타");
+
+    public static final StringExpression USERNAME_AGE = member.username.concat("_").concat(member.age.stringValue());
+
+    public static final StringExpression USERNAME_SHORT = Expressions.stringTemplate(
+            "function('replace',{0},{1},{2})", member.username, "member", "M");
+
+    private static final Map<Expression<?>, Expression<?>> COLUMNS = new HashMap<>();
+
+    static {
+        COLUMNS.put(AGE_BRACKET, member.ageBracket);
+        COLUMNS.put(USERNAME_AGE, member.usernameAge);
+        COLUMNS.put(USERNAME_SHORT, member.usernameShort);
+    }
+
+    private static final ReplaceVisitor<Void> REWRITER = new ReplaceVisitor<Void>() {
+        @Override
+        public Expression<?> visit(Operation<?> expr, Void context) {
+            Expression<?> column = COLUMNS.get(expr);
+            return column != null ? column : super.visit(expr, context);
+        }
+
+        @Override
+        public Expression<?> visit(TemplateExpression<?> expr, Void context) {
+            Expression<?> column = COLUMNS.get(expr);
+            return column != null ? column : super.visit(expr, context);
+        }
+    };
+
+    private DerivedColumns() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> Expression<T> rewrite(Expression<T> expression) {
+        return (Expression<T>) expression.accept(REWRITER, null);
+    }
+
+    public static Predicate rewrite(Predicate predicate) {
+        return (Predicate) predicate.accept(REWRITER, null);
+    }
+
+    /**
+     * 쿼리의 select, where, order by 에 들어 있는 식을 저장된 컬럼으로 바꾼다. 넘긴 쿼리를 그대로 돌려준다.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <T> JPAQuery<T> rewrite(JPAQuery<T> query) {
+        QueryMetadata metadata = query.getMetadata();
+        Expression<?> projection = metadata.getProjection();
+        if (projection != null) {
+            Expression<?> rewritten = rewrite(projection);
+            if (rewritten != projection) {
+                metadata.setProjection(rewritten);
+            }
+        }
+        Predicate where = metadata.getWhere();
+        if (where != null) {
+            Predicate rewritten = rewrite(where);
+            if (rewritten != where) {
+                metadata.clearWhere();
+                metadata.addWhere(rewritten);
+            }
+        }
+        List<OrderSpecifier<?>> orderBy = new ArrayList<>(metadata.getOrderBy());
+        if (!orderBy.isEmpty()) {
+            metadata.clearOrderBy();
+            for (OrderSpecifier<?> order : orderBy) {
+                Expression<?> target = rewrite(order.getTarget());
+                metadata.addOrderBy(target == order.getTarget() ? order
+                        : new OrderSpecifier(order.getOrder(), target, order.getNullHandling()));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * bulk update 로 username 이나 age 를 바꿀 때 같은 update 에서 저장된 컬럼도 다시 계산한다.
+     * SQL 의 set 은 바뀌기 전 값을 읽으므로 식 안의 username/age 를 새 값으로 바꿔서 계산한다.
+     *
+     * @param username 새 username. 바꾸지 않으면 null
+     * @param age      새 age. 바꾸지 않으면 null
+     */
+    public static JPAUpdateClause refresh(JPAUpdateClause update, Expression<String> username, Expression<Integer> age) {
+        if (username == null && age == null) {
+            return update;
+        }
+        Map<Path<?>, Expression<?>> changes = new HashMap<>();
+        if (username != null) {
+            changes.put(member.username, username);
+        }
+        if (age != null) {
+            changes.put(member.age, age);
+            update.set(member.ageBracket, withChanges(AGE_BRACKET, changes));
+        }
+        update.set(member.usernameAge, withChanges(USERNAME_AGE, changes));
+        if (username != null) {
+            update.set(member.usernameShort, withChanges(USERNAME_SHORT, changes));
+        }
+        return update;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Expression<T> withChanges(Expression<T> expression, Map<Path<?>, Expression<?>> changes) {
+        return (Expression<T>) expression.accept(new ReplaceVisitor<Void>() {
+            @Override
+            public Expression<?> visit(Path<?> expr, Void context) {
+                Expression<?> changed = changes.get(expr);
+                return changed != null ? changed : expr;
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,125 @@
+package study.querydsl.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.cache.EntityCacheInvalidator;
+import study.querydsl.entity.Member;
+import study.querydsl.shard.ShardScatter;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * last_active_at 이 오래된 회원을 batchSize 개씩 member 에서 member_archive 로 옮긴다.
+ * batch 마다 트랜잭션을 나누어 member 테이블을 오래 잠그지 않는다.
+ * member.archive.cron 의 기본값 "-" 는 스케줄을 끈다.
+ * shard 를 켜면 shard 마다 동시에 옮긴다. 회원과 보관 행은 같은 shard 에 남는다.
+ */
+@Slf4j
+@Component
+public class MemberArchiver {
+
+    private static final String COLUMNS = "member_id, username, age, team_id, age_bracket, username_age, username_short, last_active_at";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher publisher;
+    private final EntityCacheInvalidator cacheInvalidator;
+    private final Optional<ShardScatter> shardScatter;
+    private final int batchSize;
+    private final int inactiveDays;
+
+    public MemberArchiver(JdbcTemplate jdbcTemplate,
+                          NamedParameterJdbcTemplate namedJdbcTemplate,
+                          PlatformTransactionManager transactionManager,
+                          ApplicationEventPublisher publisher,
+                          EntityCacheInvalidator cacheInvalidator,
+                          Optional<ShardScatter> shardScatter,
+                          @Value("${member.archive.batch-size:1000}") int batchSize,
+                          @Value("${member.archive.inactive-days:365}") int inactiveDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = namedJdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.publisher = publisher;
+        this.cacheInvalidator = cacheInvalidator;
+        this.shardScatter = shardScatter;
+        this.batchSize = batchSize;
+        this.inactiveDays = inactiveDays;
+    }
+
+    @Scheduled(cron = "${member.archive.cron:-}")
+    public void archive() {
+        archiveInactiveBefore(LocalDateTime.now().minusDays(inactiveDays));
+    }
+
+    public long archiveInactiveBefore(LocalDateTime cutoff) {
+        long total;
+        if (shardScatter.isEmpty()) {
+            total = archiveInShard(cutoff);
+        } else {
+            total = shardScatter.get().onShards(null, () -> archiveInShard(cutoff)).stream()
+                    .mapToLong(Long::longValue)
+                    .sum();
+        }
+
+        if (total > 0) {
+            //메모리 색인들이 옮겨진 회원을 버리도록 한다
+            publisher.publishEvent(new MemberBulkUpdatedEvent(total));
+        }
+        log.info("archived {} members inactive before {}", total, cutoff);
+        return total;
+    }
+
+    private long archiveInShard(LocalDateTime cutoff) {
+        long total = 0;
+        Batch batch;
+        do {
+            batch = transactionTemplate.execute(status -> moveBatch(cutoff));
+            //커밋된 뒤에 비워야 다른 트랜잭션이 지운 회원을 다시 캐시에 올리지 않는다. 옮기지 않은 id 를 비워도 해는 없다
+            cacheInvalidator.evict(Member.class, batch.ids);
+            total += batch.moved;
+        } while (batch.ids.size() == batchSize);
+        return total;
+    }
+
+    private Batch moveBatch(LocalDateTime cutoff) {
+        //고른 행은 batch 트랜잭션이 끝날 때까지 잠가서 그 사이에 수정되지 않게 한다
+        List<Long> ids = jdbcTemplate.queryForList(
+                "select member_id from member where last_active_at < ? order by member_id limit ? for update",
+                Long.class, cutoff, batchSize);
+        if (ids.isEmpty()) {
+            return new Batch(ids, 0);
+        }
+        //잠금을 지원하지 않는 DB 에서도 고른 뒤에 다시 활동한 회원은 옮기지 않도록 insert/delete 모두 cutoff 를 다시 확인한다
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids).addValue("cutoff", cutoff);
+        namedJdbcTemplate.update("insert into member_archive (" + COLUMNS + ", archived_at)" +
+                " select " + COLUMNS + ", current_timestamp from member" +
+                " where member_id in (:ids) and last_active_at < :cutoff", params);
+        int moved = namedJdbcTemplate.update("delete from member" +
+                " where member_id in (:ids) and last_active_at < :cutoff", params);
+        return new Batch(ids, moved);
+    }
+
+    /**
+     * batch 에서 고른 id 와 실제로 옮긴 행 수. 고른 뒤에 다시 활동한 회원이 있으면 moved 가 더 작다.
+     */
+    private static class Batch {
+        private final List<Long> ids;
+        private final int moved;
+
+        Batch(List<Long> ids, int moved) {
+            this.ids = ids;
+            this.moved = moved;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package study.querydsl.repository;
+
+import lombok.Getter;
+
+/**
+ * 벌크 연산은 영속성 컨텍스트를 거치지 않으므로 어떤 회원이 바뀌었는지 알 수 없다.
+ * 이 이벤트를 받은 쪽은 가지고 있는 회원 정보를 다시 읽어야 한다.
+ * EntityCacheInvalidator 는 트랜잭션이 끝난 뒤 모든 노드의 Member 2차 캐시 영역을 비운다.
+ */
+@Getter
+public class MemberBulkUpdatedEvent {
+
+    private final long count;
+
+    public MemberBulkUpdatedEvent(long count) {
+        this.count = count;
+    }
+}
@@ -1,24 +1,49 @@
 package study.querydsl.repository;
 
 import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.querydsl.jpa.impl.JPAUpdateClause;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.EntityManagerHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import study.querydsl.deadline.DeadlineContext;
+import study.querydsl.deadline.RequestDeadline;
 import study.querydsl.dto.MemberSearchCondition;
 import study.querydsl.dto.MemberTeamDto;
 import study.querydsl.dto.QMemberTeamDto;
 import study.querydsl.entity.Member;
 import study.querydsl.entity.QMember;
+import study.querydsl.entity.Team;
+import study.querydsl.shard.ShardScatter;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.TypedQuery;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static org.springframework.util.StringUtils.*;
+import static study.querydsl.entity.QArchivedMember.archivedMember;
 import static study.querydsl.entity.QMember.*;
 import static study.querydsl.entity.QTeam.team;
 
@@ -27,36 +52,57 @@ import static study.querydsl.entity.QTeam.team;
 public class MemberJpaRepository {
 
     private final EntityManager em;
+    private final EntityManagerFactory emf;
     private final JPAQueryFactory query;
+    private final ApplicationEventPublisher publisher;
+    private final UsernameTrigramIndex usernameIndex;
+    //shard.enabled=true 일 때만 있다. save 를 뺀 메서드는 모두 onShards 를 거친다. (저장은 ShardedMemberRepository)
+    private final Optional<ShardScatter> shardScatter;
 
     public void save(Member member){
         em.persist(member);
+        Team memberTeam = member.getTeam();
+        publisher.publishEvent(new MemberSavedEvent(new MemberTeamDto(
+                member.getId(),
+                member.getUsername(),
+                member.getAge(),
+                memberTeam != null ? memberTeam.getId() : null,
+                memberTeam != null ? memberTeam.getName() : null)));
     }
+    //shard 를 켜면 id 범위로 shard 하나에서 찾는다
     public Optional<Member> findById(Long id){
-        return Optional.ofNullable(em.find(Member.class, id));
+        if(shardScatter.isEmpty()){
+            return Optional.ofNullable(em.find(Member.class, id));
+        }
+        return shardScatter.get().onShardOf(id, () -> em.find(Member.class, id));
     }
     public List<Member> findAll(){
-         return em.createQuery("select m from Member m", Member.class)
-                .getResultList();
+        return onShards(null, () -> em.createQuery("select m from Member m", Member.class)
+                .getResultList(), Comparator.comparing(Member::getId), Integer.MAX_VALUE);
     }
     public List<Member> findAll_Querydsl(){
-        return query
+        return onShards(null, () -> query
                 .selectFrom(member)
-                .fetch();
+                .fetch(), Comparator.comparing(Member::getId), Integer.MAX_VALUE);
     }
     public List<Member> findByUsername(String username){
-        return em.createQuery("select m from Member m where m.username= :username", Member.class)
+        return onShards(null, () -> em.createQuery("select m from Member m where m.username= :username", Member.class)
                 .setParameter("username", username)
-                .getResultList();
+                .getResultList(), Comparator.comparing(Member::getId), Integer.MAX_VALUE);
     }
     public List<Member> findByUsername_Querydsl(String username){
-        return query
+        return onShards(null, () -> query
                 .selectFrom(member)
                 .where(member.username.eq((username)))
-                .fetch();
+                .fetch(), Comparator.comparing(Member::getId), Integer.MAX_VALUE);
     }
 
     public List<MemberTeamDto> searchByBuilder(MemberSearchCondition memberSearchCondition){
+        return onShards(null, () -> searchByBuilderInShard(memberSearchCondition),
+                Comparator.comparing(MemberTeamDto::getMemberId), Integer.MAX_VALUE);
+    }
+
+    private List<MemberTeamDto> searchByBuilderInShard(MemberSearchCondition memberSearchCondition){
 
         BooleanBuilder builder = new BooleanBuilder();
 
@@ -87,7 +133,191 @@ public class MemberJpaRepository {
                 .fetch();
     }
     public List<MemberTeamDto> search(MemberSearchCondition condition){
+        return onShards(condition.getTeamId(), () -> searchInShard(condition),
+                Comparator.comparing(MemberTeamDto::getMemberId), Integer.MAX_VALUE);
+    }
+
+    private List<MemberTeamDto> searchInShard(MemberSearchCondition condition){
+        List<MemberTeamDto> result = prepare(query
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.username,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(usernameEq(condition.getUsername()),
+                        usernameContains(condition.getUsernameContains()),
+                        teamIdEq(condition.getTeamId()),
+                        teamNameEq(condition.getTeamName()),
+                        ageGoe(condition.getAgeGoe()),
+                        ageLoe(condition.getAgeLoe()),
+                        ageBracketEq(condition.getAgeBracket())))
+                .fetch();
+        if(condition.isIncludeArchived()){
+            result = new ArrayList<>(result);
+            result.addAll(searchArchived(condition));
+        }
+        return result;
+    }
+
+    private List<MemberTeamDto> searchArchived(MemberSearchCondition condition){
+        return withDeadline(archivedQuery(condition)).fetch();
+    }
+
+    //member_archive 는 요청했을 때만 찾는다. trigram 색인은 member 만 다루므로 부분 검색은 like 로 한다
+    private JPAQuery<MemberTeamDto> archivedQuery(MemberSearchCondition condition){
         return query
+                .select(new QMemberTeamDto(
+                        archivedMember.id.as("memberId"),
+                        archivedMember.username,
+                        archivedMember.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(archivedMember)
+                .leftJoin(archivedMember.team, team)
+                .where(hasText(condition.getUsername()) ? archivedMember.username.eq(condition.getUsername()) : null,
+                        hasText(condition.getUsernameContains()) ? archivedMember.username.contains(condition.getUsernameContains()) : null,
+                        teamIdEq(condition.getTeamId()),
+                        teamNameEq(condition.getTeamName()),
+                        condition.getAgeGoe() != null ? archivedMember.age.goe(condition.getAgeGoe()) : null,
+                        condition.getAgeLoe() != null ? archivedMember.age.loe(condition.getAgeLoe()) : null,
+                        hasText(condition.getAgeBracket()) ? archivedMember.ageBracket.eq(condition.getAgeBracket()) : null);
+    }
+
+    /**
+     * search 결과에 includeArchived 로 member_archive 결과를 더한다. 두 결과를 order 순서로 합쳐 limit 개로 자른다.
+     * 보관된 회원도 member_id 를 그대로 가지고 있으므로 id 정렬과 keyset 은 두 테이블에서 같은 뜻이다.
+     */
+    private List<MemberTeamDto> withArchived(MemberSearchCondition condition, List<MemberTeamDto> members,
+                                             Supplier<List<MemberTeamDto>> archived,
+                                             Comparator<MemberTeamDto> order, int limit){
+        if(!condition.isIncludeArchived()){
+            return members;
+        }
+        List<MemberTeamDto> result = new ArrayList<>(members);
+        result.addAll(archived.get());
+        return result.stream()
+                .sorted(order)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    //member_archive 에는 정렬 인덱스가 없으므로 nulls last 도 SQL 에 그대로 넘긴다. 순서는 MemberSort.comparator 와 같다
+    private OrderSpecifier<?>[] archivedOrders(MemberSort memberSort, boolean nullsLast){
+        OrderSpecifier<String> username = nullsLast
+                ? archivedMember.username.asc().nullsLast()
+                : archivedMember.username.asc().nullsFirst();
+        switch (memberSort){
+            case ID_DESC:
+                return new OrderSpecifier<?>[]{archivedMember.id.desc()};
+            case USERNAME_ASC:
+                return new OrderSpecifier<?>[]{username};
+            case AGE_ASC_USERNAME_ASC:
+                return new OrderSpecifier<?>[]{archivedMember.age.asc(), username};
+            case AGE_DESC_USERNAME_ASC:
+                return new OrderSpecifier<?>[]{archivedMember.age.desc(), username};
+            default:
+                return new OrderSpecifier<?>[]{archivedMember.id.asc()};
+        }
+    }
+
+    //파생 식을 저장된 컬럼으로 바꾸고(DerivedColumns) 요청 마감 시간을 건다
+    private <T> JPAQuery<T> prepare(JPAQuery<T> jpaQuery){
+        return withDeadline(DerivedColumns.rewrite(jpaQuery));
+    }
+
+    //요청 마감 시간(DeadlineContext)을 JDBC 쿼리 타임아웃과 취소 대상으로 건다
+    private <T> JPAQuery<T> withDeadline(JPAQuery<T> jpaQuery){
+        return QueryDeadlines.apply(em, jpaQuery);
+    }
+
+    /**
+     * 허용된 정렬(MemberSort)로 상위 limit 개만 가져온다. limit 은 항상 SQL 로 내려간다.
+     * username nulls last 는 H2 기본 정렬(null 이 먼저)과 인덱스 순서가 달라서 인덱스를 그대로 타는 쿼리로 나눠서 만든다.
+     * username 이 맨 앞이면 not null 구간 다음에 null 구간을 이어 붙이고,
+     * age 뒤에 username 이 오면 마지막 age 묶음만 다시 읽어서 묶음 안에서 null 을 뒤로 보낸다.
+     * includeArchived 면 member_archive 의 상위 limit 개를 같은 정렬로 합친다.
+     */
+    public List<MemberTeamDto> searchTop(MemberSearchCondition condition, Sort sort, int limit){
+        MemberSort memberSort = MemberSort.of(sort);
+        Sort.Order usernameOrder = sort.getOrderFor("username");
+        boolean nullsLast = usernameOrder != null && usernameOrder.getNullHandling() == Sort.NullHandling.NULLS_LAST;
+        //shard 마다 상위 limit 개를 가져와서 같은 정렬로 합친 뒤 다시 limit 개로 자른다
+        return onShards(condition.getTeamId(), () -> searchTopInShard(condition, memberSort, nullsLast, limit),
+                memberSort.comparator(nullsLast), limit);
+    }
+
+    private List<MemberTeamDto> searchTopInShard(MemberSearchCondition condition, MemberSort memberSort,
+                                                 boolean nullsLast, int limit){
+        return withArchived(condition, searchTopMembers(condition, memberSort, nullsLast, limit),
+                () -> withDeadline(archivedQuery(condition)
+                        .orderBy(archivedOrders(memberSort, nullsLast))
+                        .limit(limit))
+                        .fetch(),
+                memberSort.comparator(nullsLast), limit);
+    }
+
+    private List<MemberTeamDto> searchTopMembers(MemberSearchCondition condition, MemberSort memberSort,
+                                                 boolean nullsLast, int limit){
+        if(!nullsLast){
+            return fetchTop(condition, memberSort, null, limit);
+        }
+        if(memberSort.getGroupPath() == null){
+            return nonNullUsernamesFirst(condition, memberSort, null, limit);
+        }
+
+        List<MemberTeamDto> window = fetchTop(condition, memberSort, null, limit);
+        if(window.size() < limit){
+            return moveNullUsernamesLast(window);
+        }
+        //마지막 묶음보다 앞에 있는 묶음은 모두 window 안에 온전히 들어있다
+        int lastAge = window.get(window.size() - 1).getAge();
+        List<MemberTeamDto> result = new ArrayList<>();
+        for (MemberTeamDto dto : window) {
+            if(dto.getAge() != lastAge){
+                result.add(dto);
+            }
+        }
+        result = moveNullUsernamesLast(result);
+        result.addAll(nonNullUsernamesFirst(condition, memberSort,
+                memberSort.getGroupPath().eq(lastAge), limit - result.size()));
+        return result;
+    }
+
+    private List<MemberTeamDto> nonNullUsernamesFirst(MemberSearchCondition condition, MemberSort memberSort,
+                                                      BooleanExpression extra, int limit){
+        List<MemberTeamDto> result = new ArrayList<>(
+                fetchTop(condition, memberSort, and(extra, member.username.isNotNull()), limit));
+        if(result.size() < limit){
+            result.addAll(fetchTop(condition, memberSort, and(extra, member.username.isNull()), limit - result.size()));
+        }
+        return result;
+    }
+
+    //age 가 같은 연속된 묶음 안에서만 username 이 null 인 회원을 뒤로 보낸다
+    private List<MemberTeamDto> moveNullUsernamesLast(List<MemberTeamDto> rows){
+        List<MemberTeamDto> result = new ArrayList<>(rows.size());
+        int start = 0;
+        while(start < rows.size()){
+            int end = start;
+            while(end < rows.size() && rows.get(end).getAge() == rows.get(start).getAge()){
+                end++;
+            }
+            List<MemberTeamDto> group = rows.subList(start, end);
+            group.stream().filter(dto -> dto.getUsername() != null).forEach(result::add);
+            group.stream().filter(dto -> dto.getUsername() == null).forEach(result::add);
+            start = end;
+        }
+        return result;
+    }
+
+    private List<MemberTeamDto> fetchTop(MemberSearchCondition condition, MemberSort memberSort,
+                                         BooleanExpression extra, int limit){
+        return prepare(query
                 .select(new QMemberTeamDto(
                         member.id.as("memberId"),
                         member.username,
@@ -98,12 +328,213 @@ public class MemberJpaRepository {
                 .from(member)
                 .leftJoin(member.team, team)
                 .where(usernameEq(condition.getUsername()),
+                        usernameContains(condition.getUsernameContains()),
+                        teamIdEq(condition.getTeamId()),
+                        teamNameEq(condition.getTeamName()),
+                        ageGoe(condition.getAgeGoe()),
+                        ageLoe(condition.getAgeLoe()),
+                        ageBracketEq(condition.getAgeBracket()),
+                        extra)
+                .orderBy(memberSort.getOrders())
+                .limit(limit))
+                .fetch();
+    }
+
+    private BooleanExpression and(BooleanExpression left, BooleanExpression right){
+        return left == null ? right : left.and(right);
+    }
+
+    /**
+     * ageLt 보다 어린 회원의 이름을 바꾼다. 영속성 컨텍스트를 거치지 않으므로 실행 후 비운다.
+     * shard 를 켜면 shard 마다 자기 트랜잭션으로 실행하고 바로 커밋한다. (호출한 쪽 트랜잭션이 롤백되어도 남는다)
+     */
+    public long bulkUpdateUsername(String username, int ageLt){
+        long count;
+        if(shardScatter.isEmpty()){
+            count = bulkUpdateUsernameInShard(username, ageLt);
+        } else {
+            count = shardScatter.get().inTransactionOnShards(null, () -> bulkUpdateUsernameInShard(username, ageLt))
+                    .stream()
+                    .mapToLong(Long::longValue)
+                    .sum();
+        }
+        em.clear();
+        publisher.publishEvent(new MemberBulkUpdatedEvent(count));
+        return count;
+    }
+
+    private long bulkUpdateUsernameInShard(String username, int ageLt){
+        JPAUpdateClause update = query
+                .update(member)
+                .set(member.username, username)
+                .set(member.lastActiveAt, LocalDateTime.now())
+                .where(member.age.lt(ageLt));
+        //저장된 파생 컬럼도 같은 update 에서 다시 계산한다
+        return DerivedColumns.refresh(update, Expressions.constant(username), null)
+                .execute();
+    }
+
+    /**
+     * member_id 기준 keyset 페이징. lastMemberId 보다 큰 회원을 id 순서로 limit 개 가져온다.
+     * includeArchived 면 보관된 회원도 같은 id 순서로 섞인다. (searchStream 도 이걸 쓴다)
+     */
+    public List<MemberTeamDto> searchAfter(MemberSearchCondition condition, Long lastMemberId, int limit){
+        return onShards(condition.getTeamId(), () -> searchAfterInShard(condition, lastMemberId, limit),
+                Comparator.comparing(MemberTeamDto::getMemberId), limit);
+    }
+
+    private List<MemberTeamDto> searchAfterInShard(MemberSearchCondition condition, Long lastMemberId, int limit){
+        return withArchived(condition, searchAfterMembers(condition, lastMemberId, limit),
+                () -> withDeadline(archivedQuery(condition)
+                        .where(archivedMember.id.gt(lastMemberId))
+                        .orderBy(archivedMember.id.asc())
+                        .limit(limit))
+                        .fetch(),
+                Comparator.comparing(MemberTeamDto::getMemberId), limit);
+    }
+
+    private List<MemberTeamDto> searchAfterMembers(MemberSearchCondition condition, Long lastMemberId, int limit){
+        return prepare(query
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.username,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(member.id.gt(lastMemberId),
+                        usernameEq(condition.getUsername()),
+                        usernameContains(condition.getUsernameContains()),
+                        teamIdEq(condition.getTeamId()),
                         teamNameEq(condition.getTeamName()),
                         ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe()))
+                        ageLoe(condition.getAgeLoe()),
+                        ageBracketEq(condition.getAgeBracket()))
+                .orderBy(member.id.asc())
+                .limit(limit))
+                .fetch();
+    }
+
+    /**
+     * since 이후에 저장/수정된 회원 중 member_id 가 maxMemberId 이하인 회원. 스냅샷 이후의 변경을 따라잡을 때 쓴다.
+     */
+    public List<MemberTeamDto> searchActiveSince(LocalDateTime since, long maxMemberId){
+        return onShards(null, () -> searchActiveSinceInShard(since, maxMemberId),
+                Comparator.comparing(MemberTeamDto::getMemberId), Integer.MAX_VALUE);
+    }
+
+    private List<MemberTeamDto> searchActiveSinceInShard(LocalDateTime since, long maxMemberId){
+        return withDeadline(query
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.username,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(member.lastActiveAt.goe(since),
+                        member.id.loe(maxMemberId)))
                 .fetch();
     }
 
+    public long countUpTo(long maxMemberId){
+        if(shardScatter.isEmpty()){
+            return countUpToInShard(maxMemberId);
+        }
+        return shardScatter.get().onShards(null, () -> countUpToInShard(maxMemberId)).stream()
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    private long countUpToInShard(long maxMemberId){
+        return withDeadline(query
+                .select(member.count())
+                .from(member)
+                .where(member.id.loe(maxMemberId)))
+                .fetchOne();
+    }
+
+    /**
+     * 팀 id -> 팀 이름. 팀 이름이 바뀌어도 회원의 last_active_at 은 그대로이므로 스냅샷을 따라잡을 때 따로 읽는다.
+     */
+    public Map<Long, String> teamNames(){
+        if(shardScatter.isEmpty()){
+            return teamNamesInShard();
+        }
+        Map<Long, String> names = new HashMap<>();
+        shardScatter.get().onShards(null, this::teamNamesInShard).forEach(names::putAll);
+        return names;
+    }
+
+    private Map<Long, String> teamNamesInShard(){
+        Map<Long, String> names = new HashMap<>();
+        for (Tuple row : withDeadline(query.select(team.id, team.name).from(team)).fetch()) {
+            names.put(row.get(team.id), row.get(team.name));
+        }
+        return names;
+    }
+
+    /**
+     * 구독자가 요청한 만큼만 chunkSize 단위로 searchAfter 를 호출해서 흘려보낸다.
+     * 구독이 취소되면 다음 chunk 를 조회하지 않는다. 조회는 boundedElastic 스레드에서 트랜잭션 없이 실행된다.
+     * 호출한 스레드의 요청 마감 시간(DeadlineContext)을 chunk 마다 다시 건다.
+     */
+    public Flux<MemberTeamDto> searchStream(MemberSearchCondition condition, int chunkSize){
+        RequestDeadline deadline = DeadlineContext.current();
+        return Flux.<List<MemberTeamDto>, Long>generate(() -> 0L, (lastMemberId, sink) -> {
+                    List<MemberTeamDto> chunk = DeadlineContext.call(deadline,
+                            () -> withEntityManager(() -> searchAfter(condition, lastMemberId, chunkSize)));
+                    if (chunk.isEmpty()) {
+                        sink.complete();
+                        return lastMemberId;
+                    }
+                    sink.next(chunk);
+                    if (chunk.size() < chunkSize) {
+                        sink.complete();
+                    }
+                    return chunk.get(chunk.size() - 1).getMemberId();
+                })
+                .concatMapIterable(chunk -> chunk, 1)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * open-in-view 처럼 이 스레드에 EntityManager 하나를 묶어서 실행한다.
+     * 쿼리마다 세션이 달라지지 않으므로 요청이 취소되면 실행 중인 chunk 쿼리를 멈출 수 있다.
+     */
+    private <T> T withEntityManager(Supplier<T> work){
+        if(TransactionSynchronizationManager.hasResource(emf)){
+            return work.get();
+        }
+        EntityManager target = emf.createEntityManager();
+        TransactionSynchronizationManager.bindResource(emf, new EntityManagerHolder(target));
+        try {
+            return work.get();
+        } finally {
+            TransactionSynchronizationManager.unbindResource(emf);
+            EntityManagerFactoryUtils.closeEntityManager(target);
+        }
+    }
+
+    /**
+     * shard 를 켜면 teamId 의 shard(없으면 모든 shard)에서 실행하고 order 순서로 합쳐 limit 개로 자른다.
+     * 켜지 않았으면 그대로 실행한다.
+     */
+    private <T> List<T> onShards(Long teamId, Supplier<List<T>> search, Comparator<T> order, int limit){
+        if(shardScatter.isEmpty()){
+            return search.get();
+        }
+        return shardScatter.get().onShards(teamId, search).stream()
+                .flatMap(List::stream)
+                .sorted(order)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
     private BooleanExpression usernameEq(String username) {
         if(hasText(username)){
             return member.username.eq(username);
@@ -112,6 +543,22 @@ public class MemberJpaRepository {
         return null;
     }
 
+    //색인이 모든 회원을 담고 있고 후보가 적으면 후보 id 로 좁히고, 아니면 like '%x%' 로 찾는다
+    private BooleanExpression usernameContains(String fragment) {
+        if(!hasText(fragment)){
+            return null;
+        }
+        return usernameIndex.search(fragment)
+                .map(ids -> ids.isEmpty()
+                        ? member.id.isNull()
+                        : member.id.in(ids).and(member.username.contains(fragment)))
+                .orElseGet(() -> member.username.contains(fragment));
+    }
+
+    private BooleanExpression teamIdEq(Long teamId) {
+        return teamId!=null?team.id.eq(teamId):null;
+    }
+
     private BooleanExpression teamNameEq(String teamName) {
         return hasText(teamName)?team.name.eq(teamName):null;
     }
@@ -123,4 +570,9 @@ public class MemberJpaRepository {
     private BooleanExpression ageLoe(Integer ageLoe) {
         return ageLoe!=null? member.age.loe(ageLoe):null;
     }
+
+    //DerivedColumns.rewrite 가 저장된 age_bracket 컬럼으로 바꾼다
+    private BooleanExpression ageBracketEq(String ageBracket) {
+        return hasText(ageBracket)?DerivedColumns.AGE_BRACKET.eq(ageBracket):null;
+    }
 }
@@ -0,0 +1,390 @@
+package study.querydsl.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * username -> MemberTeamDto 조회를 JPA 없이 처리하기 위한 메모리 읽기 모델.
+ * 시작 시 DB 에서 한 번 읽어오고 이후에는 MemberJpaRepository.save 가 커밋될 때마다 반영한다.
+ * 인덱스는 ConcurrentHashMap 과 정렬된 id 배열(SortedIdIndex)이라 전역 락이 없고, 재구축은 새 스냅샷을 만든 뒤 참조만 바꾼다.
+ * 돌려주는 dto 는 공유 객체이므로 호출한 쪽에서 수정하면 안 된다.
+ * member.snapshot.path 에 스냅샷 파일(MemberSnapshotFile)이 있으면 시작할 때 그 파일과 이후 변경분만 읽는다.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "member.read-model.enabled", havingValue = "true")
+public class MemberReadModel {
+
+    private static final int CATCH_UP_BATCH = 1000;
+
+    private final MemberJpaRepository memberJpaRepository;
+    private final String snapshotPath;
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot());
+    //재구축 중에 들어온 변경. 새 스냅샷으로 바꾸기 직전에 다시 적용해야 유실되지 않는다
+    private volatile Map<Long, MemberTeamDto> changedDuringBuild;
+    //put 은 읽기 락으로 서로 막지 않고, 스냅샷 교체만 쓰기 락으로 put 사이에 끼어들지 못하게 한다
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    public MemberReadModel(MemberJpaRepository memberJpaRepository,
+                           @Value("${member.snapshot.path:}") String snapshotPath) {
+        this.memberJpaRepository = memberJpaRepository;
+        this.snapshotPath = snapshotPath;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (hasText(snapshotPath) && Files.exists(Path.of(snapshotPath))) {
+            try {
+                warmStart(MemberSnapshotFile.open(Path.of(snapshotPath)));
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.warn("member snapshot {} is not usable. rebuilding from database", snapshotPath, e);
+            }
+        }
+        rebuild();
+    }
+
+    /**
+     * 스냅샷 파일의 행을 올리고 DB 에서는 그 뒤의 변경만 읽는다.
+     * member_id 가 highWaterId 보다 큰 회원은 keyset 으로, 스냅샷 이후 수정된 회원은 last_active_at 으로 찾는다.
+     * 팀 이름은 회원 변경으로 드러나지 않으므로 현재 팀 이름을 모두 읽어서 스냅샷의 팀 이름을 바꾼다.
+     * 스냅샷 이후에 지워지거나 아카이브된 회원은 어느 회원인지 알 수 없으므로 개수가 다르면 전부 다시 읽는다.
+     */
+    public synchronized void warmStart(MemberSnapshotFile file) {
+        long highWaterId = file.getHighWaterId();
+        if (memberJpaRepository.countUpTo(highWaterId) != file.size()) {
+            log.info("member snapshot is behind deletes. rebuilding from database");
+            rebuild();
+            return;
+        }
+        beginBuild();
+        try {
+            //팀 이름 변경은 회원의 last_active_at 을 바꾸지 않으므로 현재 팀 이름으로 덮어쓴다
+            Map<Long, String> teamNames = memberJpaRepository.teamNames();
+            Map<Long, MemberTeamDto> changed = new HashMap<>();
+            for (MemberTeamDto row : memberJpaRepository.searchActiveSince(file.getCreatedAt(), highWaterId)) {
+                changed.put(row.getMemberId(), row);
+            }
+            List<MemberTeamDto> rows = new ArrayList<>(file.size());
+            for (int i = 0; i < file.size(); i++) {
+                MemberTeamDto row = changed.remove(file.memberId(i));
+                rows.add(row != null ? row : withTeamName(file.get(i), teamNames));
+            }
+            rows.addAll(changed.values());
+
+            int added = 0;
+            List<MemberTeamDto> batch;
+            Long lastMemberId = highWaterId;
+            do {
+                batch = memberJpaRepository.searchAfter(new MemberSearchCondition(), lastMemberId, CATCH_UP_BATCH);
+                for (MemberTeamDto row : batch) {
+                    rows.add(row);
+                    lastMemberId = row.getMemberId();
+                }
+                added += batch.size();
+            } while (batch.size() == CATCH_UP_BATCH);
+
+            Snapshot next = Snapshot.of(rows);
+            publish(next);
+            log.info("member read model loaded from snapshot. members={} snapshot={} added={}",
+                    next.size(), file.size(), added);
+        } finally {
+            changedDuringBuild = null;
+        }
+    }
+
+    private static MemberTeamDto withTeamName(MemberTeamDto row, Map<Long, String> teamNames) {
+        if (row.getTeamId() == null) {
+            return row;
+        }
+        String teamName = teamNames.get(row.getTeamId());
+        if (Objects.equals(teamName, row.getTeamName())) {
+            return row;
+        }
+        return new MemberTeamDto(row.getMemberId(), row.getUsername(), row.getAge(), row.getTeamId(), teamName);
+    }
+
+    public synchronized void rebuild() {
+        beginBuild();
+        try {
+            Snapshot next = Snapshot.of(memberJpaRepository.search(new MemberSearchCondition()));
+            publish(next);
+            log.info("member read model rebuilt. members={}", next.size());
+        } finally {
+            changedDuringBuild = null;
+        }
+    }
+
+    private void beginBuild() {
+        swapLock.writeLock().lock();
+        try {
+            changedDuringBuild = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * DB 에서 읽은 값보다 그 사이에 저장된 값이 더 최신이므로 기록해둔 변경을 덮어쓴 뒤 교체한다.
+     */
+    private void publish(Snapshot next) {
+        swapLock.writeLock().lock();
+        try {
+            changedDuringBuild.values().forEach(next::put);
+            current.set(next);
+            changedDuringBuild = null;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSaved(MemberSavedEvent event) {
+        put(event.getMember());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBulkUpdated(MemberBulkUpdatedEvent event) {
+        rebuild();
+    }
+
+    public void put(MemberTeamDto member) {
+        swapLock.readLock().lock();
+        try {
+            current.get().put(member);
+            Map<Long, MemberTeamDto> changed = changedDuringBuild;
+            if (changed != null) {
+                changed.put(member.getMemberId(), member);
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public List<MemberTeamDto> findByUsername(String username) {
+        Snapshot snapshot = current.get();
+        return snapshot.find(snapshot.byUsername.get(username));
+    }
+
+    public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        Snapshot snapshot = current.get();
+        Collection<MemberTeamDto> candidates;
+        if (hasText(condition.getUsername())) {
+            candidates = snapshot.find(snapshot.byUsername.get(condition.getUsername()));
+        } else if (hasText(condition.getTeamName()) || hasAgeRange(condition)) {
+            candidates = snapshot.find(snapshot.matchingIds(condition));
+        } else {
+            candidates = snapshot.byId.values();
+        }
+        //인덱스를 읽는 사이에 바뀐 회원이 있을 수 있어서 마지막에 조건을 다시 확인한다
+        return candidates.stream()
+                .filter(m -> matches(m, condition))
+                .sorted(Comparator.comparing(MemberTeamDto::getMemberId))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 조건에 맞는 회원 수의 상한. 같은 인덱스에서 배열 길이만 더하므로 비용이 거의 없다.
+     * 값이 작으면 메모리에서, 크면 DB 에서 처리하는 식으로 호출하는 쪽이 경로를 고를 수 있다.
+     */
+    public long estimate(MemberSearchCondition condition) {
+        Snapshot snapshot = current.get();
+        long estimate = snapshot.size();
+        if (hasText(condition.getUsername())) {
+            Set<Long> ids = snapshot.byUsername.get(condition.getUsername());
+            estimate = Math.min(estimate, ids == null ? 0 : ids.size());
+        }
+        if (hasText(condition.getTeamName())) {
+            estimate = Math.min(estimate, snapshot.byTeamName.count(condition.getTeamName()));
+        }
+        if (hasAgeRange(condition)) {
+            estimate = Math.min(estimate, snapshot.byAge.countRange(condition.getAgeGoe(), condition.getAgeLoe()));
+        }
+        return estimate;
+    }
+
+    public int size() {
+        return current.get().size();
+    }
+
+    private static boolean hasAgeRange(MemberSearchCondition condition) {
+        return condition.getAgeGoe() != null || condition.getAgeLoe() != null;
+    }
+
+    private boolean matches(MemberTeamDto m, MemberSearchCondition condition) {
+        if (hasText(condition.getUsername()) && !condition.getUsername().equals(m.getUsername())) {
+            return false;
+        }
+        if (hasText(condition.getUsernameContains())
+                && (m.getUsername() == null || !m.getUsername().contains(condition.getUsernameContains()))) {
+            return false;
+        }
+        if (condition.getTeamId() != null && !condition.getTeamId().equals(m.getTeamId())) {
+            return false;
+        }
+        if (hasText(condition.getTeamName()) && !condition.getTeamName().equals(m.getTeamName())) {
+            return false;
+        }
+        if (condition.getAgeGoe() != null && m.getAge() < condition.getAgeGoe()) {
+            return false;
+        }
+        return condition.getAgeLoe() == null || m.getAge() <= condition.getAgeLoe();
+    }
+
+    static class Snapshot {
+        final ConcurrentHashMap<Long, MemberTeamDto> byId;
+        final ConcurrentHashMap<String, Set<Long>> byUsername;
+        final SortedIdIndex<String> byTeamName;
+        final SortedIdIndex<Integer> byAge;
+
+        Snapshot() {
+            this(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new SortedIdIndex<>(), new SortedIdIndex<>());
+        }
+
+        private Snapshot(ConcurrentHashMap<Long, MemberTeamDto> byId, ConcurrentHashMap<String, Set<Long>> byUsername,
+                         SortedIdIndex<String> byTeamName, SortedIdIndex<Integer> byAge) {
+            this.byId = byId;
+            this.byUsername = byUsername;
+            this.byTeamName = byTeamName;
+            this.byAge = byAge;
+        }
+
+        /**
+         * 재구축용. 키마다 개수를 먼저 세고 배열을 한 번에 채운 뒤 정렬하므로 O(n log n) 이다.
+         * 같은 member_id 가 여러 번 있으면 나중 것이 남는다.
+         */
+        static Snapshot of(Collection<MemberTeamDto> rows) {
+            ConcurrentHashMap<Long, MemberTeamDto> byId = new ConcurrentHashMap<>(Math.max(16, rows.size() * 4 / 3));
+            for (MemberTeamDto row : rows) {
+                byId.put(row.getMemberId(), row);
+            }
+            ConcurrentHashMap<String, Set<Long>> byUsername = new ConcurrentHashMap<>();
+            Map<String, long[]> teamIds = new HashMap<>();
+            Map<Integer, long[]> ageIds = new HashMap<>();
+            Map<String, int[]> teamCounts = new HashMap<>();
+            Map<Integer, int[]> ageCounts = new HashMap<>();
+            for (MemberTeamDto member : byId.values()) {
+                if (member.getTeamName() != null) {
+                    teamCounts.computeIfAbsent(member.getTeamName(), k -> new int[1])[0]++;
+                }
+                ageCounts.computeIfAbsent(member.getAge(), k -> new int[1])[0]++;
+            }
+            teamCounts.forEach((k, count) -> teamIds.put(k, new long[count[0]]));
+            ageCounts.forEach((k, count) -> ageIds.put(k, new long[count[0]]));
+            teamCounts.values().forEach(count -> count[0] = 0);
+            ageCounts.values().forEach(count -> count[0] = 0);
+            for (MemberTeamDto member : byId.values()) {
+                if (member.getUsername() != null) {
+                    byUsername.computeIfAbsent(member.getUsername(), k -> ConcurrentHashMap.newKeySet())
+                            .add(member.getMemberId());
+                }
+                if (member.getTeamName() != null) {
+                    teamIds.get(member.getTeamName())[teamCounts.get(member.getTeamName())[0]++] = member.getMemberId();
+                }
+                ageIds.get(member.getAge())[ageCounts.get(member.getAge())[0]++] = member.getMemberId();
+            }
+            return new Snapshot(byId, byUsername, SortedIdIndex.build(teamIds), SortedIdIndex.build(ageIds));
+        }
+
+        void put(MemberTeamDto member) {
+            //같은 회원에 대한 동시 변경은 byId 의 해당 칸 안에서 직렬화된다
+            byId.compute(member.getMemberId(), (id, old) -> {
+                if (old != null) {
+                    unindex(old);
+                }
+                index(member);
+                return member;
+            });
+        }
+
+        List<MemberTeamDto> find(Set<Long> ids) {
+            if (ids == null) {
+                return List.of();
+            }
+            return ids.stream()
+                    .map(byId::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        }
+
+        List<MemberTeamDto> find(long[] ids) {
+            List<MemberTeamDto> result = new ArrayList<>(ids.length);
+            for (long id : ids) {
+                MemberTeamDto member = byId.get(id);
+                if (member != null) {
+                    result.add(member);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 나이 구간은 구간에 걸친 배열의 합집합, 팀은 배열 하나. 둘 다 있으면 교집합을 구한다.
+         */
+        long[] matchingIds(MemberSearchCondition condition) {
+            long[] ids = null;
+            if (hasAgeRange(condition)) {
+                ids = byAge.range(condition.getAgeGoe(), condition.getAgeLoe());
+            }
+            if (hasText(condition.getTeamName())) {
+                long[] teamIds = byTeamName.get(condition.getTeamName());
+                ids = ids == null ? teamIds : SortedIdIndex.intersect(ids, teamIds);
+            }
+            return ids == null ? SortedIdIndex.EMPTY : ids;
+        }
+
+        int size() {
+            return byId.size();
+        }
+
+        private void index(MemberTeamDto member) {
+            if (member.getUsername() != null) {
+                byUsername.computeIfAbsent(member.getUsername(), k -> ConcurrentHashMap.newKeySet())
+                        .add(member.getMemberId());
+            }
+            if (member.getTeamName() != null) {
+                byTeamName.add(member.getTeamName(), member.getMemberId());
+            }
+            byAge.add(member.getAge(), member.getMemberId());
+        }
+
+        private void unindex(MemberTeamDto member) {
+            if (member.getUsername() != null) {
+                Set<Long> ids = byUsername.get(member.getUsername());
+                if (ids != null) {
+                    ids.remove(member.getMemberId());
+                }
+            }
+            if (member.getTeamName() != null) {
+                byTeamName.remove(member.getTeamName(), member.getMemberId());
+            }
+            byAge.remove(member.getAge(), member.getMemberId());
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package study.querydsl.repository;
+
+import lombok.Getter;
+import study.querydsl.dto.MemberTeamDto;
+
+@Getter
+public class MemberSavedEvent {
+
+    private final MemberTeamDto member;
+
+    public MemberSavedEvent(MemberTeamDto member) {
+        this.member = member;
+    }
+}
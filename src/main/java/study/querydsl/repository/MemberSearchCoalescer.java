@@ -0,0 +1,123 @@
+package study.querydsl.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import study.querydsl.deadline.DeadlineContext;
+import study.querydsl.deadline.RequestCancelledException;
+import study.querydsl.deadline.RequestDeadline;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 같은 조건의 search 가 동시에 들어오면 먼저 온 요청 하나만 실행하고 나머지는 그 결과를 같이 받는다.
+ * 실행이 끝나면 바로 빠지므로 결과를 캐시하지는 않는다.
+ * 결과 목록과 dto 는 요청끼리 공유되므로 호출한 쪽에서 수정하면 안 된다.
+ * 실행하던 요청이 취소되면(RequestDeadline) 기다리던 요청 중 하나가 다시 실행한다.
+ */
+@Component
+@RequiredArgsConstructor
+public class MemberSearchCoalescer {
+
+    private final MemberJpaRepository memberJpaRepository;
+
+    private final ConcurrentHashMap<MemberSearchCondition, CompletableFuture<List<MemberTeamDto>>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong executions = new AtomicLong();
+
+    public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        MemberSearchCondition key = condition.normalized();
+        boolean counted = false;
+        while (true) {
+            CompletableFuture<List<MemberTeamDto>> mine = new CompletableFuture<>();
+            CompletableFuture<List<MemberTeamDto>> running = inFlight.putIfAbsent(key, mine);
+            if (!counted) {
+                requests.incrementAndGet();
+                counted = true;
+            }
+            if (running != null) {
+                try {
+                    return join(running);
+                } catch (RequestCancelledException e) {
+                    //먼저 실행하던 요청이 취소된 것이므로 이 요청의 마감 시간이 남았으면 다시 시도한다
+                    RequestDeadline deadline = DeadlineContext.current();
+                    if (deadline != null && (deadline.isCancelled() || deadline.remainingMillis() == 0)) {
+                        throw e;
+                    }
+                    inFlight.remove(key, running);
+                    continue;
+                }
+            }
+
+            executions.incrementAndGet();
+            try {
+                List<MemberTeamDto> result = Collections.unmodifiableList(memberJpaRepository.search(key));
+                mine.complete(result);
+                return result;
+            } catch (RuntimeException e) {
+                RuntimeException failure = cancelledOrSelf(e);
+                mine.completeExceptionally(failure);
+                throw failure;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+    }
+
+    //실행하던 요청이 취소되어서 실패한 것이면 기다리던 요청들이 구분할 수 있게 바꾼다
+    private static RuntimeException cancelledOrSelf(RuntimeException e) {
+        RequestDeadline deadline = DeadlineContext.current();
+        if (deadline != null && deadline.isCancelled() && !(e instanceof RequestCancelledException)) {
+            return new RequestCancelledException("request " + deadline.getState().name().toLowerCase(), e);
+        }
+        return e;
+    }
+
+    /**
+     * 기다리는 요청도 자기 마감 시간까지만 기다린다.
+     */
+    private List<MemberTeamDto> join(CompletableFuture<List<MemberTeamDto>> running) {
+        RequestDeadline deadline = DeadlineContext.current();
+        try {
+            if (deadline == null) {
+                return running.join();
+            }
+            return running.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (CompletionException | ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RequestCancelledException("request deadline exceeded while waiting", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestCancelledException("interrupted while waiting", e);
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getExecutionCount() {
+        return executions.get();
+    }
+
+    /**
+     * 들어온 요청 수 / 실제 실행한 쿼리 수
+     */
+    public double getCoalescingRatio() {
+        long e = executions.get();
+        return e == 0 ? 0 : (double) requests.get() / e;
+    }
+}
@@ -0,0 +1,249 @@
+package study.querydsl.repository;
+
+import study.querydsl.dto.MemberTeamDto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 읽기 모델을 재시작 때 DB 전체 조회 없이 채우기 위한 회원/팀 스냅샷 파일.
+ * 파일은 FileChannel.map 으로 열고, 행은 필요할 때 매핑된 버퍼에서 바로 읽는다. (힙으로 복사하지 않는다)
+ *
+ * <pre>
+ * header  magic, version, rowCount, stringCount (int) / highWaterId, createdAt, stringTableOffset (long)
+ * rows    memberId, teamId (long, 없으면 -1) / age, usernameRef, teamNameRef (int, 없으면 -1)   고정 28 바이트
+ * strings offsets int[stringCount + 1] / UTF-8 바이트
+ * </pre>
+ * 문자열은 한 번만 저장하고 행에는 번호만 둔다. 매핑 한 번에 담을 수 있는 2GB 까지만 지원하고,
+ * 쓸 때 넘으면 IllegalStateException 을 던지고 파일을 남기지 않는다. 읽을 때 넘거나 깨진 파일은 IllegalStateException.
+ */
+public class MemberSnapshotFile {
+
+    private static final int MAGIC = 0x4D534E50; //"MSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4 + 8 * 3;
+    private static final int ROW_SIZE = 8 * 2 + 4 * 3;
+    private static final int NONE = -1;
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private final MappedByteBuffer buffer;
+    private final int rowCount;
+    private final int stringCount;
+    private final long highWaterId;
+    private final LocalDateTime createdAt;
+    private final int stringTableOffset;
+    private final int stringBytesOffset;
+
+    private MemberSnapshotFile(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("not a member snapshot file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("unsupported member snapshot version: " + buffer.getInt(4));
+        }
+        this.rowCount = buffer.getInt(8);
+        this.stringCount = buffer.getInt(12);
+        this.highWaterId = buffer.getLong(16);
+        long createdAtMicros = buffer.getLong(24);
+        this.createdAt = LocalDateTime.ofEpochSecond(Math.floorDiv(createdAtMicros, 1_000_000L),
+                (int) Math.floorMod(createdAtMicros, 1_000_000L) * 1000, ZoneOffset.UTC);
+        long stringTableOffset = buffer.getLong(32);
+        long stringBytesOffset = stringTableOffset + (stringCount + 1L) * 4;
+        if (rowCount < 0 || stringCount < 0
+                || stringTableOffset != HEADER_SIZE + (long) rowCount * ROW_SIZE
+                || stringBytesOffset > buffer.capacity()
+                || stringBytesOffset + buffer.getInt((int) (stringTableOffset + stringCount * 4L)) != buffer.capacity()) {
+            //쓰다가 중단된 파일
+            throw new IllegalStateException("truncated member snapshot file");
+        }
+        this.stringTableOffset = (int) stringTableOffset;
+        this.stringBytesOffset = (int) stringBytesOffset;
+    }
+
+    public static MemberSnapshotFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_SIZE) {
+                //map 은 2GB 가 넘으면 IllegalArgumentException 을 던진다
+                throw new IllegalStateException("member snapshot file is larger than 2GB: " + channel.size());
+            }
+            //매핑은 채널을 닫아도 유지된다
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            return new MemberSnapshotFile(buffer);
+        }
+    }
+
+    /**
+     * rows 를 member_id 오름차순으로 받아서 임시 파일에 쓴 뒤 path 로 옮긴다.
+     * 읽는 쪽은 항상 완성된 파일만 보게 된다.
+     *
+     * @param createdAt 첫 행을 읽기 전 시각. 이후에 바뀐 회원은 시작할 때 DB 에서 다시 읽는다.
+     * @return 쓴 행 수
+     */
+    public static int write(Path path, LocalDateTime createdAt, Iterator<MemberTeamDto> rows) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int rowCount = 0;
+        long highWaterId = 0;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            ByteBuffer rowBuffer = ByteBuffer.allocate(ROW_SIZE * 1024);
+            while (rows.hasNext()) {
+                MemberTeamDto row = rows.next();
+                if (row.getMemberId() <= highWaterId) {
+                    throw new IllegalArgumentException("rows must be ordered by memberId: " + row.getMemberId());
+                }
+                highWaterId = row.getMemberId();
+                rowBuffer.putLong(row.getMemberId())
+                        .putLong(row.getTeamId() == null ? NONE : row.getTeamId())
+                        .putInt(row.getAge())
+                        .putInt(ref(strings, row.getUsername()))
+                        .putInt(ref(strings, row.getTeamName()));
+                rowCount++;
+                checkSize(HEADER_SIZE + (long) rowCount * ROW_SIZE);
+                if (!rowBuffer.hasRemaining()) {
+                    writeFully(channel, rowBuffer);
+                }
+            }
+            writeFully(channel, rowBuffer);
+
+            long stringTableOffset = channel.position();
+            List<byte[]> encoded = new ArrayList<>(strings.size());
+            ByteBuffer offsets = ByteBuffer.allocate(Math.toIntExact((strings.size() + 1L) * 4));
+            long offset = 0;
+            for (String s : strings.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                offsets.putInt((int) offset);
+                encoded.add(bytes);
+                offset += bytes.length;
+                checkSize(stringTableOffset + (strings.size() + 1L) * 4 + offset);
+            }
+            offsets.putInt((int) offset);
+            writeFully(channel, offsets);
+            for (byte[] bytes : encoded) {
+                writeFully(channel, ByteBuffer.wrap(bytes));
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(rowCount)
+                    .putInt(strings.size())
+                    .putLong(highWaterId)
+                    .putLong(toEpochMicros(createdAt))
+                    .putLong(stringTableOffset);
+            channel.position(0);
+            writeFully(channel, header);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rowCount;
+    }
+
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * 스냅샷에 들어 있는 가장 큰 member_id. 이보다 큰 회원은 스냅샷 이후에 저장되었다.
+     */
+    public long getHighWaterId() {
+        return highWaterId;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public long memberId(int row) {
+        return buffer.getLong(rowOffset(row));
+    }
+
+    public Long teamId(int row) {
+        long teamId = buffer.getLong(rowOffset(row) + 8);
+        return teamId == NONE ? null : teamId;
+    }
+
+    public int age(int row) {
+        return buffer.getInt(rowOffset(row) + 16);
+    }
+
+    public String username(int row) {
+        return string(buffer.getInt(rowOffset(row) + 20));
+    }
+
+    public String teamName(int row) {
+        return string(buffer.getInt(rowOffset(row) + 24));
+    }
+
+    public MemberTeamDto get(int row) {
+        return new MemberTeamDto(memberId(row), username(row), age(row), teamId(row), teamName(row));
+    }
+
+    private int rowOffset(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + rowCount);
+        }
+        //생성자에서 행 영역이 파일(2GB 이하) 안에 있는지 확인했다
+        return (int) (HEADER_SIZE + (long) row * ROW_SIZE);
+    }
+
+    private String string(int ref) {
+        if (ref == NONE) {
+            return null;
+        }
+        if (ref < 0 || ref >= stringCount) {
+            throw new IllegalStateException("invalid string ref " + ref + " of " + stringCount);
+        }
+        int start = buffer.getInt((int) (stringTableOffset + ref * 4L));
+        int end = buffer.getInt((int) (stringTableOffset + (ref + 1L) * 4));
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(stringBytesOffset + start).limit(stringBytesOffset + end);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private static int ref(Map<String, Integer> strings, String s) {
+        if (s == null) {
+            return NONE;
+        }
+        return strings.computeIfAbsent(s, k -> strings.size());
+    }
+
+    private static void checkSize(long size) {
+        if (size > MAX_SIZE) {
+            throw new IllegalStateException("member snapshot would be larger than 2GB");
+        }
+    }
+
+    private static long toEpochMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1000;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
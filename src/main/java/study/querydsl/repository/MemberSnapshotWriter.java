@@ -0,0 +1,50 @@
+package study.querydsl.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import study.querydsl.dto.MemberSearchCondition;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+/**
+ * member.snapshot.path 로 주기적으로 MemberSnapshotFile 을 다시 쓴다.
+ * 읽기 모델이 아니라 DB 를 member_id 순서로 끊어 읽어서 쓰므로 읽기 모델이 늦어도 스냅샷은 DB 기준이다.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "member.snapshot.path")
+public class MemberSnapshotWriter {
+
+    private final MemberJpaRepository memberJpaRepository;
+    private final Path path;
+    private final int chunkSize;
+
+    public MemberSnapshotWriter(MemberJpaRepository memberJpaRepository,
+                                @Value("${member.snapshot.path}") String path,
+                                @Value("${member.snapshot.chunk-size:1000}") int chunkSize) {
+        this.memberJpaRepository = memberJpaRepository;
+        this.path = Path.of(path);
+        this.chunkSize = chunkSize;
+    }
+
+    @Scheduled(fixedDelayString = "${member.snapshot.interval-ms:600000}",
+            initialDelayString = "${member.snapshot.interval-ms:600000}")
+    public int write() {
+        //읽는 도중에 바뀐 회원은 다음 시작 때 last_active_at 으로 다시 읽히도록 먼저 시각을 잡는다
+        LocalDateTime createdAt = LocalDateTime.now();
+        try {
+            int rows = MemberSnapshotFile.write(path, createdAt,
+                    memberJpaRepository.searchStream(new MemberSearchCondition(), chunkSize).toIterable().iterator());
+            log.info("member snapshot written. path={} rows={}", path, rows);
+            return rows;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
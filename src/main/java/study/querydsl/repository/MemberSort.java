@@ -0,0 +1,92 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.dsl.NumberPath;
+import lombok.Getter;
+import org.springframework.data.domain.Sort;
+import study.querydsl.dto.MemberTeamDto;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static study.querydsl.entity.QMember.member;
+
+/**
+ * 허용하는 정렬 목록. 각 정렬은 순서와 방향이 같은 인덱스(Member 의 @Table indexes)를 하나씩 가지고 있어서
+ * 정렬을 인덱스 순서로 처리하고 limit 에서 바로 멈출 수 있다. 목록에 없는 정렬은 받지 않는다.
+ */
+@Getter
+public enum MemberSort {
+
+    ID_ASC("member_id asc", "PRIMARY_KEY", null, member.id.asc()),
+    ID_DESC("member_id desc", "PRIMARY_KEY", null, member.id.desc()),
+    USERNAME_ASC("username asc", "IDX_MEMBER_USERNAME", null, member.username.asc()),
+    AGE_ASC_USERNAME_ASC("age asc, username asc", "IDX_MEMBER_AGE_USERNAME", member.age,
+            member.age.asc(), member.username.asc()),
+    AGE_DESC_USERNAME_ASC("age desc, username asc", "IDX_MEMBER_AGE_DESC_USERNAME", member.age,
+            member.age.desc(), member.username.asc());
+
+    private final String sql;
+    private final String indexName;
+    //username 앞에 오는 정렬 컬럼. null 이면 username 이 맨 앞이다
+    private final NumberPath<Integer> groupPath;
+    private final OrderSpecifier<?>[] orders;
+
+    MemberSort(String sql, String indexName, NumberPath<Integer> groupPath, OrderSpecifier<?>... orders) {
+        this.sql = sql;
+        this.indexName = indexName;
+        this.groupPath = groupPath;
+        this.orders = orders;
+    }
+
+    public boolean hasUsername() {
+        return sql.contains("username");
+    }
+
+    /**
+     * SQL 정렬과 같은 순서. shard 마다 가져온 결과를 합칠 때 쓴다. (H2 는 null 을 먼저 정렬한다)
+     */
+    public Comparator<MemberTeamDto> comparator(boolean nullsLast) {
+        Comparator<String> usernameOrder = nullsLast
+                ? Comparator.nullsLast(Comparator.<String>naturalOrder())
+                : Comparator.nullsFirst(Comparator.<String>naturalOrder());
+        switch (this) {
+            case ID_DESC:
+                return Comparator.comparing(MemberTeamDto::getMemberId).reversed();
+            case USERNAME_ASC:
+                return Comparator.comparing(MemberTeamDto::getUsername, usernameOrder);
+            case AGE_ASC_USERNAME_ASC:
+                return Comparator.comparingInt(MemberTeamDto::getAge)
+                        .thenComparing(MemberTeamDto::getUsername, usernameOrder);
+            case AGE_DESC_USERNAME_ASC:
+                return Comparator.comparingInt(MemberTeamDto::getAge).reversed()
+                        .thenComparing(MemberTeamDto::getUsername, usernameOrder);
+            default:
+                return Comparator.comparing(MemberTeamDto::getMemberId);
+        }
+    }
+
+    public static MemberSort of(Sort sort) {
+        if (sort == null || sort.isUnsorted()) {
+            return ID_ASC;
+        }
+        String key = sort.stream()
+                .map(order -> column(order.getProperty()) + " " + order.getDirection().name().toLowerCase())
+                .collect(Collectors.joining(", "));
+        return Arrays.stream(values())
+                .filter(memberSort -> memberSort.sql.equals(key))
+                .findFirst()
+                .orElseThrow(() -> new UnsupportedSortException(
+                        "허용하지 않는 정렬입니다. sort=" + key + " allowed=" + allowed()));
+    }
+
+    private static String column(String property) {
+        return property.equals("id") || property.equals("memberId") ? "member_id" : property;
+    }
+
+    private static List<String> allowed() {
+        return Arrays.stream(values()).map(MemberSort::getSql).collect(Collectors.toList());
+    }
+}
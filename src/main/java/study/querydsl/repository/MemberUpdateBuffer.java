@@ -0,0 +1,375 @@
+package study.querydsl.repository;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.cache.EntityCacheInvalidator;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.Member;
+import study.querydsl.shard.ShardRouter;
+import study.querydsl.shard.ShardScatter;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 회원 나이/팀 변경을 member_id 단위로 모아두었다가 주기적으로 JDBC batch update 로 반영한다.
+ * 같은 회원에 대한 연속된 변경은 마지막 값 하나로 합쳐지므로 DB 쓰기는 합쳐진 비율만큼 줄어든다.
+ * em.find + 변경감지를 거치지 않으므로 영속성 컨텍스트에 올라온 엔티티는 flush 이후에도 이전 값을 가진다.
+ * 2차 캐시는 쓴 뒤에 직접 비운다.
+ * 쓰기는 호출한 쪽 트랜잭션과 상관없이 별도 트랜잭션(REQUIRES_NEW)으로 커밋된다.
+ * batch 가 실패하면 한 행씩 다시 써서, 실패한 회원의 변경만 버퍼에 다시 넣고 다음 flush 때 재시도한다. (max-attempts 번 실패하면 버린다)
+ * 꺼내서 쓰는 중인 변경은 커밋될 때까지 inFlight 에 남겨서 read 가 놓치지 않게 한다.
+ * 커밋된 회원은 다시 읽어서 MemberSavedEvent 로 알린다. (MemberReadModel)
+ * shard 를 켜면 회원 id 로 shard 를 나눠서 shard 마다 따로 쓴다. 다른 shard 의 팀으로 옮기는 변경은 실패한다.
+ */
+@Slf4j
+@Component
+public class MemberUpdateBuffer {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityCacheInvalidator cacheInvalidator;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher publisher;
+    private final Optional<ShardScatter> shardScatter;
+    private final int maxPending;
+    private final int maxAttempts;
+
+    private final ConcurrentHashMap<Long, PendingUpdate> pending = new ConcurrentHashMap<>();
+    //pending 에서 꺼냈지만 아직 커밋되지 않은 변경
+    private final ConcurrentHashMap<Long, PendingUpdate> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public MemberUpdateBuffer(JdbcTemplate jdbcTemplate,
+                              EntityCacheInvalidator cacheInvalidator,
+                              PlatformTransactionManager transactionManager,
+                              ApplicationEventPublisher publisher,
+                              Optional<ShardScatter> shardScatter,
+                              @Value("${member.write-behind.max-pending:10000}") int maxPending,
+                              @Value("${member.write-behind.max-attempts:3}") int maxAttempts) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cacheInvalidator = cacheInvalidator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.publisher = publisher;
+        this.shardScatter = shardScatter;
+        this.maxPending = maxPending;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void changeAge(Long memberId, int age) {
+        buffer(memberId, new PendingUpdate(age, null, false, System.nanoTime(), 0));
+    }
+
+    public void changeTeam(Long memberId, Long teamId) {
+        buffer(memberId, new PendingUpdate(null, teamId, true, System.nanoTime(), 0));
+    }
+
+    private void buffer(Long memberId, PendingUpdate update) {
+        pending.merge(memberId, update, PendingUpdate::merge);
+        buffered.incrementAndGet();
+        if (pending.size() > maxPending) {
+            //너무 많이 쌓이면 호출한 쪽에서 바로 비운다. 실패한 변경은 다시 버퍼에 들어가 있다
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.warn("write-behind overflow flush failed. pending={}", pending.size(), e);
+            }
+        }
+    }
+
+    /**
+     * 아직 반영되지 않은 변경이 maxStaleness 보다 오래되었으면 먼저 반영한 뒤 읽는다.
+     * Duration.ZERO 를 주면 자기가 쓴 값을 항상 읽는다.
+     * 다른 flush 가 쓰는 중인 변경이면 flush(memberId) 가 그 flush 의 커밋을 기다린다.
+     */
+    public <T> T read(Long memberId, Duration maxStaleness, Supplier<T> loader) {
+        PendingUpdate update = pending.get(memberId);
+        if (update == null) {
+            update = inFlight.get(memberId);
+        }
+        if (update != null && update.elapsedNanos() >= maxStaleness.toNanos()) {
+            flush(memberId);
+        }
+        return loader.get();
+    }
+
+    public <T> T readYourWrites(Long memberId, Supplier<T> loader) {
+        return read(memberId, Duration.ZERO, loader);
+    }
+
+    @Scheduled(fixedDelayString = "${member.write-behind.flush-interval-ms:100}")
+    public synchronized int flush() {
+        List<Long> ids = new ArrayList<>();
+        List<PendingUpdate> updates = new ArrayList<>();
+        for (Long memberId : pending.keySet()) {
+            PendingUpdate update = take(memberId);
+            if (update != null) {
+                ids.add(memberId);
+                updates.add(update);
+            }
+        }
+        return writeOnShards(ids, updates);
+    }
+
+    public synchronized int flush(Long memberId) {
+        PendingUpdate update = take(memberId);
+        if (update == null) {
+            return 0;
+        }
+        return writeOnShards(List.of(memberId), List.of(update));
+    }
+
+    //inFlight 에 먼저 넣고 pending 에서 지워야 read 가 둘 다 비어 있는 순간을 보지 않는다
+    private PendingUpdate take(Long memberId) {
+        PendingUpdate update = pending.get(memberId);
+        if (update == null) {
+            return null;
+        }
+        inFlight.put(memberId, update);
+        //get 과 remove 사이에 합쳐진 변경까지 가져온다
+        update = pending.remove(memberId);
+        if (update == null) {
+            inFlight.remove(memberId);
+            return null;
+        }
+        inFlight.put(memberId, update);
+        return update;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            int count = flush();
+            log.info("write-behind buffer flushed on shutdown. members={}", count);
+        } catch (RuntimeException e) {
+            log.error("write-behind buffer flush failed on shutdown. lost={}", pending.size(), e);
+        }
+    }
+
+    /**
+     * shard 마다 write 한다. 한 shard 가 실패해도 나머지 shard 는 쓰고 첫 예외를 던진다.
+     * write 가 시작되지도 못했으면(범위 밖 id, shard 스레드 거부) 아직 inFlight 에 남아 있으므로 여기서 다시 버퍼에 넣는다.
+     */
+    private int writeOnShards(List<Long> ids, List<PendingUpdate> updates) {
+        if (shardScatter.isEmpty()) {
+            return write(ids, updates);
+        }
+        Map<Long, List<Integer>> byShard = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            byShard.computeIfAbsent(ids.get(i) / ShardRouter.ID_RANGE, shard -> new ArrayList<>()).add(i);
+        }
+        int count = 0;
+        RuntimeException firstFailure = null;
+        for (List<Integer> indexes : byShard.values()) {
+            List<Long> shardIds = new ArrayList<>(indexes.size());
+            List<PendingUpdate> shardUpdates = new ArrayList<>(indexes.size());
+            for (int i : indexes) {
+                shardIds.add(ids.get(i));
+                shardUpdates.add(updates.get(i));
+            }
+            try {
+                count += shardScatter.get().onShardOf(shardIds.get(0), () -> write(shardIds, shardUpdates)).orElse(0);
+            } catch (RuntimeException e) {
+                if (firstFailure == null) {
+                    firstFailure = e;
+                }
+            }
+            List<Long> notStartedIds = new ArrayList<>();
+            List<PendingUpdate> notStarted = new ArrayList<>();
+            for (int i = 0; i < shardIds.size(); i++) {
+                if (inFlight.remove(shardIds.get(i)) != null) {
+                    notStartedIds.add(shardIds.get(i));
+                    notStarted.add(shardUpdates.get(i));
+                }
+            }
+            requeue(notStartedIds, notStarted);
+        }
+        if (firstFailure != null) {
+            throw firstFailure;
+        }
+        return count;
+    }
+
+    /**
+     * 한 번에 쓰다가 실패하면 한 행씩 다시 써서 실패한 회원만 다시 버퍼에 넣는다.
+     * 실패한 행이 있으면 나머지를 쓴 뒤에 첫 예외를 던진다.
+     */
+    private int write(List<Long> ids, List<PendingUpdate> updates) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        try {
+            try {
+                transactionTemplate.executeWithoutResult(status -> batchUpdate(ids, updates));
+                committed(ids);
+                return ids.size();
+            } catch (RuntimeException e) {
+                if (ids.size() == 1) {
+                    requeue(ids, updates);
+                    throw e;
+                }
+                log.warn("write-behind batch failed. retrying {} members one by one", ids.size(), e);
+            }
+            List<Long> writtenIds = new ArrayList<>();
+            RuntimeException firstFailure = null;
+            for (int i = 0; i < ids.size(); i++) {
+                List<Long> id = List.of(ids.get(i));
+                List<PendingUpdate> update = List.of(updates.get(i));
+                try {
+                    transactionTemplate.executeWithoutResult(status -> batchUpdate(id, update));
+                    writtenIds.add(ids.get(i));
+                } catch (RuntimeException e) {
+                    requeue(id, update);
+                    if (firstFailure == null) {
+                        firstFailure = e;
+                    }
+                }
+            }
+            committed(writtenIds);
+            if (firstFailure != null) {
+                throw firstFailure;
+            }
+            return writtenIds.size();
+        } finally {
+            ids.forEach(inFlight::remove);
+        }
+    }
+
+    private void committed(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        //커밋된 뒤에 비워야 다른 트랜잭션이 이전 값을 다시 캐시에 올리지 않는다
+        cacheInvalidator.evict(Member.class, ids);
+        written.addAndGet(ids.size());
+        for (MemberTeamDto member : load(ids)) {
+            publisher.publishEvent(new MemberSavedEvent(member));
+        }
+    }
+
+    private List<MemberTeamDto> load(List<Long> ids) {
+        String in = String.join(",", Collections.nCopies(ids.size(), "?"));
+        return jdbcTemplate.query("select m.member_id, m.username, m.age, t.team_id, t.name from member m" +
+                        " left join team t on t.team_id = m.team_id where m.member_id in (" + in + ")",
+                (rs, rowNum) -> new MemberTeamDto(rs.getLong(1), rs.getString(2), rs.getInt(3),
+                        rs.getObject(4) == null ? null : rs.getLong(4), rs.getString(5)),
+                ids.toArray());
+    }
+
+    /**
+     * 실패한 변경은 그 사이에 들어온 변경보다 오래된 것이므로 older 쪽으로 합친다.
+     * 시도 횟수는 실패한 회원에만 더한다.
+     */
+    private void requeue(List<Long> ids, List<PendingUpdate> updates) {
+        failed.addAndGet(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            PendingUpdate retry = updates.get(i).retry();
+            if (retry.getAttempts() >= maxAttempts) {
+                log.error("write-behind update dropped after {} attempts. memberId={}", retry.getAttempts(), ids.get(i));
+                continue;
+            }
+            pending.merge(ids.get(i), retry, (newer, older) -> PendingUpdate.merge(older, newer));
+        }
+    }
+
+    private void batchUpdate(List<Long> ids, List<PendingUpdate> updates) {
+        List<Object[]> ageArgs = new ArrayList<>();
+        List<Object[]> teamArgs = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            PendingUpdate update = updates.get(i);
+            if (update.getAge() != null) {
+                ageArgs.add(new Object[]{update.getAge(), Member.ageBracketOf(update.getAge()),
+                        String.valueOf(update.getAge()), ids.get(i)});
+            }
+            if (update.isTeamChanged()) {
+                teamArgs.add(new Object[]{update.getTeamId(), ids.get(i)});
+            }
+        }
+        if (!ageArgs.isEmpty()) {
+            //나이로 계산하는 파생 컬럼도 같이 바꾼다 (Member.refreshDerivedColumns)
+            jdbcTemplate.batchUpdate("update member set age = ?, age_bracket = ?, username_age = username || '_' || ?," +
+                    " last_active_at = current_timestamp where member_id = ?", ageArgs);
+        }
+        if (!teamArgs.isEmpty()) {
+            jdbcTemplate.batchUpdate("update member set team_id = ?, last_active_at = current_timestamp where member_id = ?", teamArgs);
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getBufferedCount() {
+        return buffered.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * 버퍼에 들어온 변경 수 / 실제로 DB 에 쓴 회원 수
+     */
+    public double getCoalescingRatio() {
+        long w = written.get();
+        return w == 0 ? 0 : (double) buffered.get() / w;
+    }
+
+    @Getter
+    static class PendingUpdate {
+        private final Integer age;
+        private final Long teamId;
+        private final boolean teamChanged;
+        private final long bufferedAt;
+        private final int attempts;
+
+        PendingUpdate(Integer age, Long teamId, boolean teamChanged, long bufferedAt, int attempts) {
+            this.age = age;
+            this.teamId = teamId;
+            this.teamChanged = teamChanged;
+            this.bufferedAt = bufferedAt;
+            this.attempts = attempts;
+        }
+
+        //먼저 들어온 변경의 시각을 유지해야 staleness 가 제대로 계산된다
+        static PendingUpdate merge(PendingUpdate older, PendingUpdate newer) {
+            return new PendingUpdate(
+                    newer.age != null ? newer.age : older.age,
+                    newer.teamChanged ? newer.teamId : older.teamId,
+                    older.teamChanged || newer.teamChanged,
+                    older.bufferedAt,
+                    Math.max(older.attempts, newer.attempts));
+        }
+
+        PendingUpdate retry() {
+            return new PendingUpdate(age, teamId, teamChanged, bufferedAt, attempts + 1);
+        }
+
+        long elapsedNanos() {
+            return System.nanoTime() - bufferedAt;
+        }
+    }
+}
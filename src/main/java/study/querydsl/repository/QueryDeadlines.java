@@ -0,0 +1,34 @@
+package study.querydsl.repository;
+
+import com.querydsl.jpa.impl.JPAQuery;
+import org.hibernate.Session;
+import org.hibernate.annotations.QueryHints;
+import study.querydsl.deadline.DeadlineContext;
+import study.querydsl.deadline.RequestDeadline;
+
+import javax.persistence.EntityManager;
+
+/**
+ * 요청 마감 시간(DeadlineContext)을 조회 쿼리에 건다. 요청에서 불릴 수 있는 리포지토리 조회는 모두 이걸 거친다.
+ * 남은 시간은 JDBC 쿼리 타임아웃이 되고, 요청이 취소되면 실행 중인 statement 를 멈출 수 있도록 지금 세션을 넘긴다.
+ * 트랜잭션이나 open-in-view 로 묶인 EntityManager 가 없으면 쿼리마다 세션이 달라서 타임아웃만 건다. (shard 스레드)
+ */
+final class QueryDeadlines {
+
+    private QueryDeadlines() {
+    }
+
+    static <T> JPAQuery<T> apply(EntityManager em, JPAQuery<T> jpaQuery) {
+        RequestDeadline deadline = DeadlineContext.current();
+        if (deadline == null) {
+            return jpaQuery;
+        }
+        int timeoutSeconds = deadline.queryTimeoutSeconds();
+        try {
+            deadline.attach(em.unwrap(Session.class));
+        } catch (IllegalStateException e) {
+            //묶인 EntityManager 가 없다
+        }
+        return jpaQuery.setHint(QueryHints.TIMEOUT_HIBERNATE, timeoutSeconds);
+    }
+}
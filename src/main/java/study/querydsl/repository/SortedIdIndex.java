@@ -0,0 +1,174 @@
+package study.querydsl.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 키 -> 정렬된 member_id long 배열.
+ * 배열은 바뀔 때마다 새로 만들어 교체하므로(copy-on-write) 읽는 쪽은 락 없이 배열을 그대로 쓴다.
+ * 키가 정렬되어 있어서 나이처럼 범위 조건이 걸리는 값은 구간에 걸친 배열들을 합치면 된다.
+ * add 는 매번 배열을 복사하므로 실시간 변경에만 쓰고, 전체를 채울 때는 build 로 키마다 한 번씩만 정렬한다.
+ */
+class SortedIdIndex<K extends Comparable<K>> {
+
+    static final long[] EMPTY = new long[0];
+
+    private final ConcurrentSkipListMap<K, long[]> buckets = new ConcurrentSkipListMap<>();
+
+    /**
+     * 넘겨준 배열은 그대로 정렬해서 쓰므로 호출한 쪽에서 다시 쓰면 안 된다.
+     */
+    static <K extends Comparable<K>> SortedIdIndex<K> build(Map<K, long[]> idsByKey) {
+        SortedIdIndex<K> index = new SortedIdIndex<>();
+        for (Map.Entry<K, long[]> entry : idsByKey.entrySet()) {
+            long[] ids = entry.getValue();
+            Arrays.sort(ids);
+            long[] unique = distinct(ids);
+            if (unique.length > 0) {
+                index.buckets.put(entry.getKey(), unique);
+            }
+        }
+        return index;
+    }
+
+    void add(K key, long id) {
+        buckets.compute(key, (k, ids) -> insert(ids == null ? EMPTY : ids, id));
+    }
+
+    void remove(K key, long id) {
+        buckets.computeIfPresent(key, (k, ids) -> {
+            long[] removed = delete(ids, id);
+            return removed.length == 0 ? null : removed;
+        });
+    }
+
+    long[] get(K key) {
+        long[] ids = buckets.get(key);
+        return ids == null ? EMPTY : ids;
+    }
+
+    /**
+     * from, to 는 포함이고 null 이면 그쪽은 열린 구간이다.
+     */
+    long[] range(K from, K to) {
+        return union(slice(from, to).values());
+    }
+
+    long count(K key) {
+        return get(key).length;
+    }
+
+    long countRange(K from, K to) {
+        long count = 0;
+        for (long[] ids : slice(from, to).values()) {
+            count += ids.length;
+        }
+        return count;
+    }
+
+    private NavigableMap<K, long[]> slice(K from, K to) {
+        if (from != null && to != null) {
+            if (from.compareTo(to) > 0) {
+                return new ConcurrentSkipListMap<>();
+            }
+            return buckets.subMap(from, true, to, true);
+        }
+        if (from != null) {
+            return buckets.tailMap(from, true);
+        }
+        if (to != null) {
+            return buckets.headMap(to, true);
+        }
+        return buckets;
+    }
+
+    static long[] insert(long[] ids, long id) {
+        int pos = Arrays.binarySearch(ids, id);
+        if (pos >= 0) {
+            return ids;
+        }
+        int at = -pos - 1;
+        long[] result = new long[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        result[at] = id;
+        System.arraycopy(ids, at, result, at + 1, ids.length - at);
+        return result;
+    }
+
+    static long[] delete(long[] ids, long id) {
+        int pos = Arrays.binarySearch(ids, id);
+        if (pos < 0) {
+            return ids;
+        }
+        long[] result = new long[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, pos);
+        System.arraycopy(ids, pos + 1, result, pos, ids.length - pos - 1);
+        return result;
+    }
+
+    /**
+     * 한 회원은 한 키에만 있으므로 이어붙인 뒤 정렬하면 된다.
+     * 읽는 도중 다른 구간으로 옮겨진 회원은 두 번 보일 수 있어서 중복만 걸러낸다.
+     */
+    static long[] union(Collection<long[]> parts) {
+        int size = 0;
+        List<long[]> snapshot = new ArrayList<>(parts);
+        for (long[] part : snapshot) {
+            size += part.length;
+        }
+        long[] result = new long[size];
+        int offset = 0;
+        for (long[] part : snapshot) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        Arrays.sort(result);
+        return distinct(result);
+    }
+
+    //정렬된 배열에서 중복을 뺀다. 중복이 없으면 같은 배열을 돌려준다
+    private static long[] distinct(long[] sorted) {
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+
+    static long[] intersect(long[] a, long[] b) {
+        long[] small = a.length <= b.length ? a : b;
+        long[] large = small == a ? b : a;
+        long[] result = new long[small.length];
+        int count = 0;
+        if ((long) small.length * 16 < large.length) {
+            //크기 차이가 크면 작은 쪽을 기준으로 이진 탐색한다
+            for (long id : small) {
+                if (Arrays.binarySearch(large, id) >= 0) {
+                    result[count++] = id;
+                }
+            }
+        } else {
+            int i = 0;
+            int j = 0;
+            while (i < small.length && j < large.length) {
+                if (small[i] == large[j]) {
+                    result[count++] = small[i];
+                    i++;
+                    j++;
+                } else if (small[i] < large[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
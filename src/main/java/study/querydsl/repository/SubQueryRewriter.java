@@ -0,0 +1,295 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.support.ReplaceVisitor;
+import com.querydsl.core.types.*;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.jpa.impl.JPAQuery;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 바깥 쿼리를 참조하지 않는(비상관) JPAExpressions 서브쿼리를 먼저 실행하고 결과를 파라미터로 바꿔 넣는다.
+ * JPQL 은 from 절 서브쿼리를 지원하지 않아서 파생 테이블 조인 대신 두 번 나눠서 실행한다.
+ *
+ * <pre>
+ * member.age.eq(select(memberSub.age.max()).from(memberSub))       -> member.age = ?1
+ * member.age.goe(select(memberSub.age.avg()).from(memberSub))      -> member.age >= ?1 (정수 컬럼이면 올림)
+ * member.age.in(select(memberSub.age).from(memberSub).where(...))  -> member.age in (?1)
+ * select(member.username, select(memberSub.age.avg()).from(memberSub)) -> 상수 projection
+ * </pre>
+ * 바깥 별칭을 참조하는 상관 서브쿼리는 그대로 둔다.
+ * in 결과는 중복을 없애고, max-in-values 개를 넘거나 null 이 섞여 있으면 서브쿼리를 그대로 둔다.
+ * 스칼라 서브쿼리 결과가 null 이면 비교식도 그대로 둔다. (false 로 바꾸면 not 으로 감쌌을 때 SQL 의 unknown 과 결과가 다르다)
+ * 서브쿼리는 비교식의 오른쪽, in, projection 자리에서만 바꾼다. exists, any, all 은 여러 행을 다루므로 그대로 둔다.
+ * 정수 컬럼과 소수 값의 eq/ne 처럼 같은 뜻의 정수 비교로 바꿀 수 없는 비교도 그대로 둔다.
+ */
+@Component
+public class SubQueryRewriter {
+
+    private static final Set<Ops> COMPARISONS = EnumSet.of(Ops.EQ, Ops.NE, Ops.GOE, Ops.GT, Ops.LOE, Ops.LT);
+
+    private final EntityManager em;
+    private final int maxInValues;
+
+    public SubQueryRewriter(EntityManager em,
+                            @Value("${querydsl.subquery.max-in-values:1000}") int maxInValues) {
+        this.em = em;
+        this.maxInValues = maxInValues;
+    }
+
+    public Predicate rewrite(Predicate predicate) {
+        return (Predicate) predicate.accept(new Rewriter(false), null);
+    }
+
+    /**
+     * projection 용. 비교식 밖에 있는 스칼라 서브쿼리도 값으로 바꾼다.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Expression<T> rewrite(Expression<T> expression) {
+        return (Expression<T>) expression.accept(new Rewriter(true), null);
+    }
+
+    public static boolean isUncorrelated(SubQueryExpression<?> subQuery) {
+        return freeRoots(subQuery.getMetadata()).isEmpty();
+    }
+
+    private Object fetchOne(SubQueryExpression<?> subQuery) {
+        return new JPAQuery<Object>(em, subQuery.getMetadata().clone()).fetchOne();
+    }
+
+    /**
+     * 중복을 없앤 결과. max-in-values 개를 넘으면 null 을 돌려준다.
+     * limit/offset 이 없는 서브쿼리는 DB 에서 distinct 로 한 개 더 가져와서 넘는지만 본다.
+     */
+    private Set<?> fetchDistinct(SubQueryExpression<?> subQuery) {
+        QueryMetadata metadata = subQuery.getMetadata().clone();
+        if (metadata.getModifiers().isRestricting()) {
+            //limit 이 걸린 서브쿼리에 distinct 를 붙이면 결과가 달라진다
+            Set<Object> values = new LinkedHashSet<>(new JPAQuery<Object>(em, metadata).fetch());
+            return values.size() > maxInValues ? null : values;
+        }
+        metadata.setDistinct(true);
+        //in 은 순서와 상관없고 distinct 와 같이 쓰면 select 에 없는 정렬 컬럼을 거부하는 DB 가 있다
+        metadata.clearOrderBy();
+        List<Object> values = new JPAQuery<Object>(em, metadata).limit(maxInValues + 1L).fetch();
+        return values.size() > maxInValues ? null : new LinkedHashSet<>(values);
+    }
+
+    private class Rewriter extends ReplaceVisitor<Void> {
+
+        private final boolean projection;
+
+        Rewriter(boolean projection) {
+            this.projection = projection;
+        }
+
+        @Override
+        public Expression<?> visit(Operation<?> expr, Void context) {
+            Operator op = expr.getOperator();
+            if (op == Ops.EXISTS || op instanceof Ops.QuantOps) {
+                //여러 행을 보는 연산이라 fetchOne 으로 바꿀 수 없다
+                return expr;
+            }
+            List<Expression<?>> args = expr.getArgs();
+            if (args.size() == 2 && args.get(1) instanceof SubQueryExpression
+                    && isUncorrelated((SubQueryExpression<?>) args.get(1))) {
+                Expression<?> left = args.get(0).accept(this, context);
+                SubQueryExpression<?> subQuery = (SubQueryExpression<?>) args.get(1);
+                if (op == Ops.IN || op == Ops.NOT_IN) {
+                    Set<?> values = fetchDistinct(subQuery);
+                    if (values == null || values.contains(null)) {
+                        return ExpressionUtils.predicate(op, left, subQuery);
+                    }
+                    return in(op, left, values);
+                }
+                if (COMPARISONS.contains(op)) {
+                    Object value = fetchOne(subQuery);
+                    if (value == null) {
+                        return ExpressionUtils.predicate(op, left, subQuery);
+                    }
+                    return compare((Ops) op, left, subQuery, value);
+                }
+            }
+            return super.visit(expr, context);
+        }
+
+        @Override
+        public Expression<?> visit(SubQueryExpression<?> expr, Void context) {
+            if (!projection || !isUncorrelated(expr)) {
+                return expr;
+            }
+            Object value = fetchOne(expr);
+            return value == null ? Expressions.nullExpression() : ConstantImpl.create(value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Expression<?> in(Operator op, Expression<?> left, Collection<?> values) {
+        if (values.isEmpty()) {
+            return op == Ops.IN ? alwaysFalse() : alwaysTrue();
+        }
+        Predicate in = ExpressionUtils.in((Expression<Object>) left, (Collection<Object>) values);
+        return op == Ops.IN ? in : ExpressionUtils.predicate(Ops.NOT, in);
+    }
+
+    /**
+     * 정수 컬럼과 평균 같은 소수 값을 비교할 때는 Hibernate 가 파라미터 타입이 다르다고 거부하므로
+     * 결과가 같은 정수 경계로 바꿔서 비교한다. age >= 25.5 는 age >= 26, age > 25.5 는 age > 25 가 된다.
+     * 정수가 아닌 값과의 eq/ne 는 DB 마다 비교 방식이 달라서 서브쿼리를 그대로 둔다.
+     */
+    private Expression<?> compare(Ops op, Expression<?> left, SubQueryExpression<?> subQuery, Object value) {
+        if (isIntegral(left.getType()) && value instanceof Number && !isIntegral(value.getClass())) {
+            BigDecimal decimal = new BigDecimal(value.toString());
+            boolean whole = decimal.stripTrailingZeros().scale() <= 0;
+            switch (op) {
+                case EQ:
+                case NE:
+                    if (!whole) {
+                        return ExpressionUtils.predicate(op, left, subQuery);
+                    }
+                    break;
+                case GOE:
+                case LT:
+                    decimal = decimal.setScale(0, RoundingMode.CEILING);
+                    break;
+                default:
+                    decimal = decimal.setScale(0, RoundingMode.FLOOR);
+            }
+            value = toIntegral(decimal, left.getType());
+        }
+        return ExpressionUtils.predicate(op, left, ConstantImpl.create(value));
+    }
+
+    private static boolean isIntegral(Class<?> type) {
+        return type == Integer.class || type == int.class
+                || type == Long.class || type == long.class
+                || type == Short.class || type == short.class;
+    }
+
+    private static Object toIntegral(BigDecimal value, Class<?> type) {
+        if (type == Long.class || type == long.class) {
+            return value.longValue();
+        }
+        if (type == Short.class || type == short.class) {
+            return value.shortValue();
+        }
+        return value.intValue();
+    }
+
+    private static Predicate alwaysFalse() {
+        return Expressions.booleanTemplate("1 = 0");
+    }
+
+    private static Predicate alwaysTrue() {
+        return Expressions.booleanTemplate("1 = 1");
+    }
+
+    /**
+     * 서브쿼리 안에서 쓰였지만 from/join 으로 선언되지 않은 별칭. 비어 있으면 비상관 서브쿼리다.
+     */
+    private static Set<Expression<?>> freeRoots(QueryMetadata metadata) {
+        Set<Expression<?>> declared = new HashSet<>();
+        Set<Expression<?>> used = new HashSet<>();
+        RootCollector collector = new RootCollector();
+        for (JoinExpression join : metadata.getJoins()) {
+            declared.add(rootOf(join.getTarget()));
+            if (join.getTarget() instanceof Operation) {
+                //member.team.as(team) 처럼 별칭을 붙인 조인은 member.team 쪽도 확인한다
+                ((Operation<?>) join.getTarget()).getArg(0).accept(collector, used);
+            }
+            if (join.getCondition() != null) {
+                join.getCondition().accept(collector, used);
+            }
+        }
+        if (metadata.getProjection() != null) {
+            metadata.getProjection().accept(collector, used);
+        }
+        if (metadata.getWhere() != null) {
+            metadata.getWhere().accept(collector, used);
+        }
+        if (metadata.getHaving() != null) {
+            metadata.getHaving().accept(collector, used);
+        }
+        for (Expression<?> groupBy : metadata.getGroupBy()) {
+            groupBy.accept(collector, used);
+        }
+        for (OrderSpecifier<?> orderBy : metadata.getOrderBy()) {
+            orderBy.getTarget().accept(collector, used);
+        }
+        used.removeAll(declared);
+        return used;
+    }
+
+    private static Expression<?> rootOf(Expression<?> target) {
+        if (target instanceof Operation && ((Operation<?>) target).getOperator() == Ops.ALIAS) {
+            return rootOf(((Operation<?>) target).getArg(1));
+        }
+        if (target instanceof Path) {
+            return ((Path<?>) target).getRoot();
+        }
+        return target;
+    }
+
+    private static class RootCollector implements Visitor<Void, Set<Expression<?>>> {
+
+        @Override
+        public Void visit(Constant<?> expr, Set<Expression<?>> roots) {
+            return null;
+        }
+
+        @Override
+        public Void visit(FactoryExpression<?> expr, Set<Expression<?>> roots) {
+            for (Expression<?> arg : expr.getArgs()) {
+                arg.accept(this, roots);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Operation<?> expr, Set<Expression<?>> roots) {
+            for (Expression<?> arg : expr.getArgs()) {
+                arg.accept(this, roots);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(ParamExpression<?> expr, Set<Expression<?>> roots) {
+            return null;
+        }
+
+        @Override
+        public Void visit(Path<?> expr, Set<Expression<?>> roots) {
+            roots.add(expr.getRoot());
+            return null;
+        }
+
+        @Override
+        public Void visit(SubQueryExpression<?> expr, Set<Expression<?>> roots) {
+            roots.addAll(freeRoots(expr.getMetadata()));
+            return null;
+        }
+
+        @Override
+        public Void visit(TemplateExpression<?> expr, Set<Expression<?>> roots) {
+            for (Object arg : expr.getArgs()) {
+                if (arg instanceof Expression) {
+                    ((Expression<?>) arg).accept(this, roots);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.types.Projections;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Repository;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.QMemberTeamDto;
+import study.querydsl.dto.TeamMembersDto;
+import study.querydsl.shard.ShardScatter;
+
+import javax.persistence.EntityManager;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static study.querydsl.entity.QMember.member;
+import static study.querydsl.entity.QTeam.team;
+
+@Repository
+@RequiredArgsConstructor
+public class TeamJpaRepository {
+
+    private final EntityManager em;
+    private final JPAQueryFactory query;
+    //shard.enabled=true 일 때만 있다
+    private final Optional<ShardScatter> shardScatter;
+
+    /**
+     * 팀을 먼저 페이징하고, 그 팀들의 회원은 in 쿼리 한 번으로 가져와서 메모리에서 묶는다.
+     * 컬렉션 fetch join 은 팀 행이 회원 수만큼 늘어나서 offset/limit 가 회원 기준으로 잘리므로 쓰지 않는다.
+     * 팀이 몇 개든 쿼리는 두 번이다. (팀이 없으면 한 번) 두 쿼리 모두 요청 마감 시간(QueryDeadlines)을 건다.
+     * shard 를 켜면 shard 마다 offset + limit 개의 팀을 가져와서 id 순서로 합친 뒤 자르고,
+     * 회원은 팀과 같은 shard 에 있으므로 모든 shard 에 같은 팀 id 로 한 번씩 묻는다.
+     */
+    public List<TeamMembersDto> findTeamsWithMembers(long offset, int limit){
+        List<TeamMembersDto> teams;
+        if(shardScatter.isEmpty()){
+            teams = findTeams(offset, limit);
+        } else {
+            teams = shardScatter.get().onShards(null, () -> findTeams(0, offset + limit)).stream()
+                    .flatMap(List::stream)
+                    .sorted(Comparator.comparing(TeamMembersDto::getTeamId))
+                    .skip(offset)
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+        if(teams.isEmpty()){
+            return teams;
+        }
+
+        Map<Long, TeamMembersDto> byId = new LinkedHashMap<>();
+        for (TeamMembersDto t : teams) {
+            byId.put(t.getTeamId(), t);
+        }
+        List<MemberTeamDto> members;
+        if(shardScatter.isEmpty()){
+            members = findMembers(byId.keySet());
+        } else {
+            members = shardScatter.get().onShards(null, () -> findMembers(byId.keySet())).stream()
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        }
+        for (MemberTeamDto m : members) {
+            byId.get(m.getTeamId()).getMembers().add(m);
+        }
+        return teams;
+    }
+
+    private List<TeamMembersDto> findTeams(long offset, long limit){
+        return QueryDeadlines.apply(em, query
+                .select(Projections.constructor(TeamMembersDto.class, team.id, team.name))
+                .from(team)
+                .orderBy(team.id.asc())
+                .offset(offset)
+                .limit(limit))
+                .fetch();
+    }
+
+    private List<MemberTeamDto> findMembers(Collection<Long> teamIds){
+        return QueryDeadlines.apply(em, query
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.username,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(member)
+                .join(member.team, team)
+                .where(team.id.in(teamIds))
+                .orderBy(member.id.asc()))
+                .fetch();
+    }
+}
@@ -0,0 +1,11 @@
+package study.querydsl.repository;
+
+/**
+ * MemberSort 에 없는 정렬을 요청했을 때 던진다. 요청을 고쳐야 하는 오류이므로 컨트롤러는 400 으로 돌려준다.
+ */
+public class UnsupportedSortException extends IllegalArgumentException {
+
+    public UnsupportedSortException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,292 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import study.querydsl.cache.CacheInvalidationBus;
+import study.querydsl.entity.Member;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static study.querydsl.entity.QMember.member;
+
+/**
+ * username 부분 검색(contains)용 trigram 역색인.
+ * 검색어의 trigram 마다 회원 id 집합을 교집합한 뒤 실제 username 에 검색어가 들어있는지 다시 확인한다.
+ * 검색어가 minFragmentLength 보다 짧거나 아직 색인을 읽어오기 전이면 Optional.empty() 를 돌려주고,
+ * 그때는 DB 에서 like '%x%' 로 찾는다.
+ * <p>
+ * 색인에 없는 회원은 검색 결과에서 빠지므로 색인이 모든 회원을 담고 있을 때만 쓴다.
+ * 이 노드의 JPA 저장/수정/삭제는 save() 를 거치지 않아도 커밋 후 Hibernate 이벤트로 반영되고,
+ * bulk 연산은 MemberBulkUpdatedEvent 를 받아 다시 읽는다.
+ * 다른 노드가 같은 DB 에 쓰거나(분산 CacheInvalidationBus) 샤딩을 켜면 볼 수 없는 쓰기가 생기므로 색인을 쓰지 않는다.
+ * 후보가 max-candidates 개를 넘으면 in 목록이 너무 길어지므로 역시 like 로 찾는다.
+ */
+@Slf4j
+@Component
+public class UsernameTrigramIndex {
+
+    static final int GRAM = 3;
+
+    private final JPAQueryFactory query;
+    private final EntityManagerFactory emf;
+    private final int minFragmentLength;
+    private final int maxCandidates;
+    private final boolean complete;
+
+    private volatile Index current = new Index();
+    private volatile boolean ready;
+    //다시 읽는 중에 들어온 변경. 새 색인으로 바꾸기 직전에 다시 적용해야 유실되지 않는다
+    private volatile Map<Long, Optional<String>> changedDuringReload;
+    //put 은 읽기 락으로 서로 막지 않고, 색인 교체만 쓰기 락으로 put 사이에 끼어들지 못하게 한다
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    public UsernameTrigramIndex(JPAQueryFactory query,
+                                EntityManagerFactory emf,
+                                CacheInvalidationBus bus,
+                                @Value("${shard.enabled:false}") boolean sharded,
+                                @Value("${member.username-index.min-fragment-length:3}") int minFragmentLength,
+                                @Value("${member.username-index.max-candidates:1000}") int maxCandidates) {
+        this.query = query;
+        this.emf = emf;
+        //trigram 보다 짧은 검색어는 색인으로 찾을 수 없다
+        this.minFragmentLength = Math.max(GRAM, minFragmentLength);
+        this.maxCandidates = maxCandidates;
+        this.complete = !bus.isDistributed() && !sharded;
+        if (!complete) {
+            log.info("username trigram index disabled. distributed={}, sharded={}", bus.isDistributed(), sharded);
+        }
+    }
+
+    @PostConstruct
+    public void registerListener() {
+        if (!complete) {
+            return;
+        }
+        EventListenerRegistry registry = emf.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        MemberChangeListener listener = new MemberChangeListener();
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+    }
+
+    /**
+     * 새 색인을 따로 만든 뒤 참조만 바꾼다. 다시 읽는 동안의 검색은 이전 색인을 쓴다.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void reload() {
+        if (!complete) {
+            return;
+        }
+        swapLock.writeLock().lock();
+        try {
+            changedDuringReload = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        try {
+            Index next = new Index();
+            List<Tuple> rows = query
+                    .select(member.id, member.username)
+                    .from(member)
+                    .fetch();
+            for (Tuple row : rows) {
+                next.put(row.get(member.id), row.get(member.username));
+            }
+            swapLock.writeLock().lock();
+            try {
+                //DB 를 읽은 뒤에 커밋된 변경이 더 최신이다
+                changedDuringReload.forEach((id, username) -> next.put(id, username.orElse(null)));
+                current = next;
+                ready = true;
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            log.info("username trigram index loaded. members={}", next.usernames.size());
+        } finally {
+            changedDuringReload = null;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBulkUpdated(MemberBulkUpdatedEvent event) {
+        reload();
+    }
+
+    public void put(Long memberId, String username) {
+        swapLock.readLock().lock();
+        try {
+            Map<Long, Optional<String>> changed = changedDuringReload;
+            if (changed != null) {
+                changed.put(memberId, Optional.ofNullable(username));
+            }
+            current.put(memberId, username);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public boolean supports(String fragment) {
+        return complete && ready && fragment != null && fragment.length() >= minFragmentLength;
+    }
+
+    public Optional<Set<Long>> search(String fragment) {
+        if (!supports(fragment)) {
+            return Optional.empty();
+        }
+        Index index = current;
+        List<Set<Long>> lists = new ArrayList<>();
+        for (String gram : grams(fragment)) {
+            Set<Long> ids = index.postings.get(gram);
+            if (ids == null) {
+                return Optional.of(Set.of());
+            }
+            lists.add(ids);
+        }
+        //가장 작은 집합을 기준으로 나머지에 모두 들어있는지 확인한다
+        lists.sort(Comparator.comparingInt(Set::size));
+        Set<Long> result = new HashSet<>();
+        for (Long id : lists.get(0)) {
+            if (containsAll(lists, id)) {
+                String username = index.usernames.get(id);
+                if (username != null && username.contains(fragment)) {
+                    result.add(id);
+                    if (result.size() > maxCandidates) {
+                        return Optional.empty();
+                    }
+                }
+            }
+        }
+        return Optional.of(result);
+    }
+
+    public int getMinFragmentLength() {
+        return minFragmentLength;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    private static boolean containsAll(List<Set<Long>> lists, Long id) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Set<String> grams(String value) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    private static class Index {
+
+        private final ConcurrentHashMap<String, Set<Long>> postings = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Long, String> usernames = new ConcurrentHashMap<>();
+
+        void put(Long memberId, String username) {
+            //같은 회원에 대한 동시 변경은 usernames 의 해당 칸 안에서 직렬화된다
+            usernames.compute(memberId, (id, old) -> {
+                if (old != null) {
+                    for (String gram : grams(old)) {
+                        Set<Long> ids = postings.get(gram);
+                        if (ids != null) {
+                            ids.remove(id);
+                        }
+                    }
+                }
+                if (username != null) {
+                    for (String gram : grams(username)) {
+                        postings.computeIfAbsent(gram, k -> ConcurrentHashMap.newKeySet()).add(id);
+                    }
+                }
+                return username;
+            });
+        }
+    }
+
+    /**
+     * 커밋된 회원 변경을 반영한다. save() 를 거치지 않은 em.persist, 변경감지, em.remove 도 여기로 들어온다.
+     * Hibernate 는 커밋 후 처리를 등록한 모든 엔티티(2차 캐시에 있는 Team 포함)의 이벤트를 모든 리스너에 보내므로
+     * requiresPostCommitHanding 과 상관없이 회원인지 직접 확인한다.
+     */
+    private class MemberChangeListener implements PostCommitInsertEventListener,
+            PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (!(event.getEntity() instanceof Member)) {
+                return;
+            }
+            Member member = (Member) event.getEntity();
+            put(member.getId(), member.getUsername());
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            if (!(event.getEntity() instanceof Member)) {
+                return;
+            }
+            Member member = (Member) event.getEntity();
+            put(member.getId(), member.getUsername());
+        }
+
+        @Override
+        public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            if (!(event.getEntity() instanceof Member)) {
+                return;
+            }
+            put((Long) event.getId(), null);
+        }
+
+        @Override
+        public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        }
+
+        @Override
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return persister.getMappedClass() == Member.class;
+        }
+    }
+}
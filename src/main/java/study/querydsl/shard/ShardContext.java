@@ -0,0 +1,33 @@
+package study.querydsl.shard;
+
+import java.util.function.Supplier;
+
+/**
+ * 현재 스레드가 사용할 shard 번호. ShardRoutingDataSource 가 커넥션을 얻을 때 이 값을 본다.
+ * 커넥션은 트랜잭션이 시작될 때 정해지므로 트랜잭션 밖에서 지정해야 한다.
+ */
+public final class ShardContext {
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static Integer current() {
+        return CURRENT.get();
+    }
+
+    public static <T> T call(int shard, Supplier<T> task) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return task.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package study.querydsl.shard;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * shard.enabled=true 이면 shard.urls 의 데이터베이스마다 DataSource 를 만들고 ShardRoutingDataSource 로 묶는다.
+ * 스키마(ddl-auto)는 0번 shard 에만 만들어지고 ShardSchemaInitializer 가 나머지 shard 로 복사한다.
+ */
+@Configuration
+@ConditionalOnProperty(name = "shard.enabled", havingValue = "true")
+public class ShardDataSourceConfig {
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Value("${shard.urls}") List<String> urls,
+                                 @Value("${shard.username:sa}") String username,
+                                 @Value("${shard.password:}") String password) {
+        Map<Object, Object> targets = new HashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            targets.put(i, DataSourceBuilder.create()
+                    .driverClassName("org.h2.Driver")
+                    .url(urls.get(i))
+                    .username(username)
+                    .password(password)
+                    .build());
+        }
+        ShardRoutingDataSource routing = new ShardRoutingDataSource();
+        routing.setTargetDataSources(targets);
+        routing.setDefaultTargetDataSource(targets.get(0));
+        return routing;
+    }
+
+    @Bean
+    public ShardRouter shardRouter(@Value("${shard.urls}") List<String> urls) {
+        return new ShardRouter(urls.size());
+    }
+}
@@ -0,0 +1,43 @@
+package study.querydsl.shard;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 팀 단위로 shard 를 나눈다. 팀의 회원은 모두 팀과 같은 shard 에 저장된다.
+ * shard 마다 hibernate_sequence 를 ID_RANGE 단위로 떨어뜨려 두기 때문에 id 만 보고 shard 를 알 수 있다.
+ */
+public class ShardRouter {
+
+    public static final long ID_RANGE = 1_000_000_000L;
+
+    private final int shardCount;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ShardRouter(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public int shardOf(Long teamId) {
+        if (!contains(teamId)) {
+            throw new IllegalArgumentException("shard 범위를 벗어난 팀입니다. teamId=" + teamId);
+        }
+        return (int) (teamId / ID_RANGE);
+    }
+
+    public boolean contains(Long id) {
+        return id != null && id >= 0 && id / ID_RANGE < shardCount;
+    }
+
+    //새 팀은 돌아가면서 배치한다
+    public int shardForNewTeam() {
+        return Math.floorMod(next.getAndIncrement(), shardCount);
+    }
+
+    public static long firstId(int shard) {
+        return shard * ID_RANGE + 1;
+    }
+}
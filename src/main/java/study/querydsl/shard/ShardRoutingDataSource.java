@@ -0,0 +1,14 @@
+package study.querydsl.shard;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * ShardContext 에 지정된 shard 의 DataSource 로 연결한다. 지정되지 않으면 0번 shard 를 쓴다.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.current();
+    }
+}
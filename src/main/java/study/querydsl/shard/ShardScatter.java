@@ -0,0 +1,109 @@
+package study.querydsl.shard;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.deadline.DeadlineContext;
+import study.querydsl.deadline.RequestDeadline;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * shard 가 켜져 있으면 회원/팀을 읽고 쓰는 리포지토리(MemberJpaRepository, TeamJpaRepository, MemberArchiver, MemberUpdateBuffer)가
+ * 이걸 거쳐서 shard 마다 실행한다. 새 팀과 회원의 저장은 ShardedMemberRepository 가 맡는다.
+ * teamId 를 알면 그 팀의 shard 하나에서, 모르면 모든 shard 에서 동시에 실행하고 shard 별 결과를 돌려준다.
+ * shard 는 커넥션을 얻을 때 정해지므로 shard 전용 스레드에서 트랜잭션 없이 실행한다.
+ * 그래서 호출한 쪽 트랜잭션에서 아직 커밋하지 않은 변경은 보이지 않고, 읽은 엔티티는 준영속 상태라 지연 로딩이 되지 않는다.
+ * 요청 마감 시간(DeadlineContext)은 같이 넘긴다.
+ * 이미 shard 가 정해진 스레드(ShardContext)에서는 그 shard 에서만 바로 실행한다.
+ */
+@Component
+@ConditionalOnProperty(name = "shard.enabled", havingValue = "true")
+public class ShardScatter {
+
+    private final ShardRouter shardRouter;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskExecutor executor;
+
+    public ShardScatter(ShardRouter shardRouter,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${shard.executor.pool-size:16}") int poolSize,
+                        @Value("${shard.executor.queue-capacity:256}") int queueCapacity) {
+        this.shardRouter = shardRouter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        //Executor 를 빈으로 등록하면 Spring Boot 의 applicationTaskExecutor 가 만들어지지 않으므로 이 빈이 시작/종료를 맡는다
+        this.executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("shard-");
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        //큐가 차면 TaskRejectedException. 호출한 스레드에서 실행하면 그 스레드의 트랜잭션 커넥션(0번 shard)을 쓰게 된다
+        executor.setQueueCapacity(queueCapacity);
+        executor.initialize();
+    }
+
+    public <T> List<T> onShards(Long teamId, Supplier<T> task) {
+        if (ShardContext.current() != null) {
+            return Collections.singletonList(task.get());
+        }
+        List<Integer> targets = new ArrayList<>();
+        if (teamId != null) {
+            targets.add(shardRouter.shardOf(teamId));
+        } else {
+            for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+                targets.add(shard);
+            }
+        }
+        RequestDeadline deadline = DeadlineContext.current();
+        List<CompletableFuture<T>> futures = new ArrayList<>(targets.size());
+        for (int target : targets) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> ShardContext.call(target, () -> DeadlineContext.call(deadline, task)), executor));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * id 가 속한 shard 하나에서 실행한다. id 는 hibernate_sequence 로 만들어지므로 회원 id 도 shard 범위를 따른다.
+     * 어느 shard 범위에도 없는 id 면 실행하지 않는다.
+     */
+    public <T> Optional<T> onShardOf(Long id, Supplier<T> task) {
+        if (ShardContext.current() == null && !shardRouter.contains(id)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(onShards(id, task).get(0));
+    }
+
+    /**
+     * onShards 와 같지만 shard 마다 트랜잭션을 열어서 실행한다. 쓰기용.
+     * shard 마다 따로 커밋되므로 한 shard 가 실패해도 다른 shard 의 변경은 되돌려지지 않는다.
+     */
+    public <T> List<T> inTransactionOnShards(Long teamId, Supplier<T> task) {
+        return onShards(teamId, () -> transactionTemplate.execute(status -> task.get()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,48 @@
+package study.querydsl.shard;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * 0번 shard 에 만들어진 스키마를 H2 의 SCRIPT NODATA 로 뽑아서 나머지 shard 에 그대로 실행하고,
+ * shard 마다 hibernate_sequence 시작값을 ShardRouter.ID_RANGE 만큼 떨어뜨린다.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@ConditionalOnProperty(name = "shard.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class ShardSchemaInitializer {
+
+    private final DataSource dataSource;
+    private final ShardRouter shardRouter;
+
+    @PostConstruct
+    public void init() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        List<String> script = ShardContext.call(0, () -> jdbcTemplate.queryForList("script nodata", String.class));
+        for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+            int target = shard;
+            ShardContext.call(target, () -> {
+                if (target != 0) {
+                    for (String statement : script) {
+                        if (!statement.startsWith("CREATE USER")) {
+                            jdbcTemplate.execute(statement);
+                        }
+                    }
+                }
+                jdbcTemplate.execute("alter sequence hibernate_sequence restart with " + ShardRouter.firstId(target));
+                return null;
+            });
+        }
+        log.info("schema copied to {} shards", shardRouter.getShardCount());
+    }
+}
@@ -0,0 +1,59 @@
+package study.querydsl.shard;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+import study.querydsl.repository.MemberJpaRepository;
+
+import javax.persistence.EntityManager;
+import java.util.function.Supplier;
+
+/**
+ * 팀과 회원을 팀의 shard 에 저장한다.
+ * 조회는 MemberJpaRepository 가 ShardScatter 로 shard 마다 실행하므로 여기에는 없다.
+ * shard 는 트랜잭션 시작 시점에 정해지므로 트랜잭션 안에서 호출하면 안 된다.
+ */
+@Repository
+@ConditionalOnProperty(name = "shard.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class ShardedMemberRepository {
+
+    private final MemberJpaRepository memberJpaRepository;
+    private final ShardRouter shardRouter;
+    private final EntityManager em;
+    private final PlatformTransactionManager transactionManager;
+
+    public void saveTeam(Team team) {
+        checkNoTransaction();
+        inShardTransaction(shardRouter.shardForNewTeam(), () -> {
+            em.persist(team);
+            return null;
+        });
+    }
+
+    public void save(Member member) {
+        checkNoTransaction();
+        if (member.getTeam() == null) {
+            throw new IllegalArgumentException("팀이 없는 회원은 shard 를 정할 수 없습니다.");
+        }
+        inShardTransaction(shardRouter.shardOf(member.getTeam().getId()), () -> {
+            memberJpaRepository.save(member);
+            return null;
+        });
+    }
+
+    private <T> T inShardTransaction(int shard, Supplier<T> task) {
+        return ShardContext.call(shard, () -> new TransactionTemplate(transactionManager).execute(status -> task.get()));
+    }
+
+    private void checkNoTransaction() {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("트랜잭션 안에서는 shard 를 바꿀 수 없습니다.");
+        }
+    }
+}
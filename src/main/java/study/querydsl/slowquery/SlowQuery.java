@@ -0,0 +1,27 @@
+package study.querydsl.slowquery;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+@Getter
+public class SlowQuery {
+
+    private final LocalDateTime executedAt;
+    private final long elapsedMillis;
+    private final String sql;
+    private final String caller;
+    //EXPLAIN 은 요청과 별도로 실행되므로 나중에 채워진다. 실패한 statement 는 EXPLAIN 하지 않는다
+    private volatile String plan;
+
+    public SlowQuery(LocalDateTime executedAt, long elapsedMillis, String sql, String caller) {
+        this.executedAt = executedAt;
+        this.elapsedMillis = elapsedMillis;
+        this.sql = sql;
+        this.caller = caller;
+    }
+
+    void setPlan(String plan) {
+        this.plan = plan;
+    }
+}
@@ -0,0 +1,19 @@
+package study.querydsl.slowquery;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequiredArgsConstructor
+public class SlowQueryController {
+
+    private final SlowQueryLog slowQueryLog;
+
+    @GetMapping("/admin/slow-queries")
+    public List<SlowQuery> slowQueries(){
+        return slowQueryLog.recent();
+    }
+}
@@ -0,0 +1,127 @@
+package study.querydsl.slowquery;
+
+import com.p6spy.engine.common.StatementInformation;
+import com.p6spy.engine.event.SimpleJdbcEventListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * p6spy 가 모든 statement 실행 후에 호출한다.
+ * threshold 를 넘은 쿼리는 호출한 메서드와 함께 SlowQueryLog 에 남기고,
+ * 나머지는 sample-rate 비율만큼만 로그를 찍는다. (p6spy 기본 로그는 application.yml 에서 끈다)
+ * 로그와 /admin/slow-queries 에는 파라미터 값 대신 ? 가 들어간 sql 만 남긴다.
+ * EXPLAIN 은 성공한 select 만, 요청 스레드와 트랜잭션 밖에서 별도 커넥션으로 실행하고 결과를 나중에 채운다.
+ * EXPLAIN 이 밀려서 큐가 차면 그 쿼리는 EXPLAIN 하지 않는다.
+ */
+@Slf4j
+@Component
+public class SlowQueryListener extends SimpleJdbcEventListener {
+
+    private static final String PACKAGE = "study.querydsl.";
+    //EXPLAIN 스레드가 실행한 statement 는 다시 기록하지 않는다
+    private static final ThreadLocal<Boolean> EXPLAINING = ThreadLocal.withInitial(() -> false);
+
+    private final SlowQueryLog slowQueryLog;
+    //이 리스너를 쓰는 DataSource 를 생성자에서 받으면 순환 참조가 된다
+    private final ObjectProvider<DataSource> dataSource;
+    private final long thresholdNanos;
+    private final double sampleRate;
+
+    private final ThreadPoolExecutor explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(100),
+            r -> {
+                Thread thread = new Thread(r, "slow-query-explain");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    public SlowQueryListener(SlowQueryLog slowQueryLog,
+                             ObjectProvider<DataSource> dataSource,
+                             @Value("${slow-query.threshold-ms:200}") long thresholdMillis,
+                             @Value("${slow-query.sample-rate:0.01}") double sampleRate) {
+        this.slowQueryLog = slowQueryLog;
+        this.dataSource = dataSource;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public void onAfterAnyExecute(StatementInformation statementInformation, long timeElapsedNanos, SQLException e) {
+        if (EXPLAINING.get()) {
+            return;
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(timeElapsedNanos);
+        if (timeElapsedNanos >= thresholdNanos) {
+            String sql = statementInformation.getSql();
+            String caller = caller();
+            SlowQuery slowQuery = new SlowQuery(LocalDateTime.now(), elapsedMillis, sql, caller);
+            slowQueryLog.add(slowQuery);
+            if (e == null && isSelect(sql)) {
+                //값이 채워진 sql 은 EXPLAIN 에만 쓰고 남기지 않는다
+                String sqlWithValues = statementInformation.getSqlWithValues();
+                explainExecutor.execute(() -> slowQuery.setPlan(explain(sqlWithValues)));
+            }
+            log.warn("slow query {}ms caller={} failed={} sql={}", elapsedMillis, caller, e != null, sql);
+        } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            log.info("{}ms sql={}", elapsedMillis, statementInformation.getSql());
+        }
+    }
+
+    private static boolean isSelect(String sql) {
+        return sql != null && sql.trim().regionMatches(true, 0, "select", 0, 6);
+    }
+
+    private String explain(String sql) {
+        DataSource target = dataSource.getIfAvailable();
+        if (target == null) {
+            return null;
+        }
+        EXPLAINING.set(true);
+        try (Connection connection = target.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("explain " + sql)) {
+            StringBuilder plan = new StringBuilder();
+            while (rs.next()) {
+                plan.append(rs.getString(1)).append('\n');
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            return "explain failed: " + e.getMessage();
+        } finally {
+            EXPLAINING.set(false);
+        }
+    }
+
+    //프록시나 이 패키지를 제외하고 처음 나오는 우리 코드의 메서드
+    private String caller() {
+        for (StackTraceElement element : Thread.currentThread().getStackTrace()) {
+            String className = element.getClassName();
+            if (className.startsWith(PACKAGE)
+                    && !className.startsWith(SlowQueryListener.class.getPackageName())
+                    && !className.contains("$$")) {
+                return className.substring(className.lastIndexOf('.') + 1) + "." + element.getMethodName();
+            }
+        }
+        return "unknown";
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        explainExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,48 @@
+package study.querydsl.slowquery;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 최근 느린 쿼리 capacity 개만 보관하는 링 버퍼. 가득 차면 가장 오래된 것을 덮어쓴다.
+ */
+@Component
+public class SlowQueryLog {
+
+    private final AtomicReferenceArray<SlowQuery> buffer;
+    private final AtomicLong cursor = new AtomicLong();
+
+    public SlowQueryLog(@Value("${slow-query.capacity:100}") int capacity) {
+        this.buffer = new AtomicReferenceArray<>(capacity);
+    }
+
+    public void add(SlowQuery slowQuery) {
+        long index = cursor.getAndIncrement();
+        buffer.set((int) (index % buffer.length()), slowQuery);
+    }
+
+    /**
+     * 최근 것부터
+     */
+    public List<SlowQuery> recent() {
+        List<SlowQuery> result = new ArrayList<>();
+        long end = cursor.get();
+        long start = Math.max(0, end - buffer.length());
+        for (long i = end - 1; i >= start; i--) {
+            SlowQuery slowQuery = buffer.get((int) (i % buffer.length()));
+            if (slowQuery != null) {
+                result.add(slowQuery);
+            }
+        }
+        return result;
+    }
+
+    public long getTotalCount() {
+        return cursor.get();
+    }
+}
@@ -0,0 +1,100 @@
+package study.querydsl.startup;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 기동 시간 리포트.
+ * BufferingApplicationStartup 으로 실행했을 때만 단계별 시간이 남는다. (QuerydslApplication.main)
+ * 스키마 생성(ddl-auto)은 entityManagerFactory 빈 생성 시간에 포함되고, 초기 데이터 입력은 querydsl.seed 단계로 기록된다.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StartupReport {
+
+    public static final String SEED_STEP = "querydsl.seed";
+
+    private final ApplicationStartup applicationStartup;
+
+    private volatile Duration timeToReady;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (applicationStartup instanceof BufferingApplicationStartup) {
+            Instant startTime = ((BufferingApplicationStartup) applicationStartup).getBufferedTimeline().getStartTime();
+            timeToReady = Duration.between(startTime, Instant.now());
+        } else {
+            timeToReady = Duration.ofMillis(ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+        log.info("application ready in {}ms", timeToReady.toMillis());
+        getPhases().stream()
+                .limit(10)
+                .forEach(phase -> log.info("  {} {}ms", phase.getName(), phase.getDuration().toMillis()));
+    }
+
+    /**
+     * SpringApplication 시작(없으면 JVM 시작)부터 ApplicationReadyEvent 까지 걸린 시간
+     */
+    public Duration getTimeToReady() {
+        return timeToReady;
+    }
+
+    /**
+     * 오래 걸린 순서. 빈 생성 단계는 bean:이름 으로 표시하고, 안쪽 빈의 시간이 바깥 빈에 중복으로 포함된다.
+     */
+    public List<Phase> getPhases() {
+        List<Phase> phases = new ArrayList<>();
+        if (!(applicationStartup instanceof BufferingApplicationStartup)) {
+            return phases;
+        }
+        StartupTimeline timeline = ((BufferingApplicationStartup) applicationStartup).getBufferedTimeline();
+        for (StartupTimeline.TimelineEvent event : timeline.getEvents()) {
+            phases.add(new Phase(nameOf(event.getStartupStep()), event.getDuration()));
+        }
+        phases.sort(Comparator.comparing(Phase::getDuration).reversed());
+        return phases;
+    }
+
+    public Optional<Phase> getPhase(String name) {
+        return getPhases().stream()
+                .filter(phase -> phase.getName().equals(name))
+                .findFirst();
+    }
+
+    private String nameOf(StartupStep step) {
+        for (StartupStep.Tag tag : step.getTags()) {
+            if (tag.getKey().equals("beanName")) {
+                return "bean:" + tag.getValue();
+            }
+        }
+        return step.getName();
+    }
+
+    @Getter
+    public static class Phase {
+        private final String name;
+        private final Duration duration;
+
+        public Phase(String name, Duration duration) {
+            this.name = name;
+            this.duration = duration;
+        }
+    }
+}
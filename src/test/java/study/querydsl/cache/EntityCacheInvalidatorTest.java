@@ -0,0 +1,169 @@
+package study.querydsl.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.entity.Member;
+import study.querydsl.repository.MemberArchiver;
+import study.querydsl.repository.MemberJpaRepository;
+import study.querydsl.repository.MemberUpdateBuffer;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 캐시는 커밋된 뒤에 채워지므로 @Transactional 대신 TransactionTemplate 으로 커밋하고 끝나면 지운다.
+ * 다른 노드는 같은 버스를 구독하는 EntityCacheInvalidator 와 mock Cache 로 흉내낸다.
+ */
+@SpringBootTest(properties = "member.write-behind.flush-interval-ms=3600000")
+class EntityCacheInvalidatorTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    EntityManagerFactory emf;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    CacheInvalidationBus bus;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+    @Autowired
+    MemberUpdateBuffer buffer;
+    @Autowired
+    MemberArchiver archiver;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    TransactionTemplate tx;
+    Cache remoteCache;
+    Long memberId;
+    //공유 버스에 구독한 다른 노드. 끝나면 구독을 끊어야 다음 테스트로 새지 않는다
+    List<EntityCacheInvalidator> nodes = new ArrayList<>();
+
+    @BeforeEach
+    void before(){
+        tx = new TransactionTemplate(transactionManager);
+        remoteCache = mock(Cache.class);
+        node("remote-" + System.nanoTime(), remoteCache);
+
+        memberId = tx.execute(status -> {
+            Member member = new Member("cached1", 10);
+            em.persist(member);
+            return member.getId();
+        });
+    }
+
+    @AfterEach
+    void after(){
+        nodes.forEach(EntityCacheInvalidator::close);
+        jdbcTemplate.update("delete from member_archive where member_id = ?", memberId);
+        tx.executeWithoutResult(status -> {
+            Member member = em.find(Member.class, memberId);
+            if (member != null) {
+                em.remove(member);
+            }
+        });
+    }
+
+    @Test
+    void remoteInvalidationEvictsLocalCache(){
+        assertThat(emf.getCache().contains(Member.class, memberId)).isTrue();
+
+        EntityCacheInvalidator otherNode = node("other-" + System.nanoTime(), mock(Cache.class));
+        otherNode.publish(Member.class, List.of(memberId));
+
+        assertThat(emf.getCache().contains(Member.class, memberId)).isFalse();
+    }
+
+    @Test
+    void entityUpdateNotifiesOtherNodes(){
+        tx.executeWithoutResult(status -> em.find(Member.class, memberId).setAge(11));
+
+        //이 노드의 캐시는 Hibernate 가 새 값으로 고친다
+        assertThat(emf.getCache().contains(Member.class, memberId)).isTrue();
+        verify(remoteCache).evict(Member.class, memberId);
+    }
+
+    @Test
+    void bulkUpdateEvictsEverywhere(){
+        tx.executeWithoutResult(status -> memberJpaRepository.bulkUpdateUsername("renamed", 11));
+
+        assertThat(emf.getCache().contains(Member.class, memberId)).isFalse();
+        verify(remoteCache).evict(Member.class);
+        Member member = tx.execute(status -> em.find(Member.class, memberId));
+        assertThat(member.getUsername()).isEqualTo("renamed");
+    }
+
+    @Test
+    void writeBehindEvictsEverywhere(){
+        buffer.changeAge(memberId, 30);
+        buffer.flush();
+
+        assertThat(emf.getCache().contains(Member.class, memberId)).isFalse();
+        verify(remoteCache).evict(Member.class, memberId);
+        Member member = tx.execute(status -> em.find(Member.class, memberId));
+        assertThat(member.getAge()).isEqualTo(30);
+    }
+
+    @Test
+    void archiveEvictsEverywhere(){
+        assertThat(emf.getCache().contains(Member.class, memberId)).isTrue();
+        jdbcTemplate.update("update member set last_active_at = ? where member_id = ?",
+                LocalDateTime.of(1990, 1, 1, 0, 0), memberId);
+
+        archiver.archiveInactiveBefore(LocalDateTime.of(2000, 1, 1, 0, 0));
+
+        assertThat(emf.getCache().contains(Member.class, memberId)).isFalse();
+        verify(remoteCache).evict(Member.class, memberId);
+        assertThat(tx.execute(status -> em.find(Member.class, memberId))).isNull();
+    }
+
+    @Test
+    void closedNodeIsNotNotified(){
+        Cache closedCache = mock(Cache.class);
+        EntityCacheInvalidator closed = new EntityCacheInvalidator("closed-" + System.nanoTime(), closedCache, bus);
+        closed.close();
+
+        node("other-" + System.nanoTime(), mock(Cache.class)).publish(Member.class, List.of(memberId));
+
+        verifyNoInteractions(closedCache);
+    }
+
+    @Test
+    void loopbackSkipsOrigin(){
+        LoopbackCacheInvalidationBus loopback = new LoopbackCacheInvalidationBus();
+        Cache cacheA = mock(Cache.class);
+        Cache cacheB = mock(Cache.class);
+        Cache cacheC = mock(Cache.class);
+        EntityCacheInvalidator nodeA = new EntityCacheInvalidator("a", cacheA, loopback);
+        EntityCacheInvalidator nodeB = new EntityCacheInvalidator("b", cacheB, loopback);
+        new EntityCacheInvalidator("c", cacheC, loopback);
+
+        nodeA.evict(Member.class, List.of(1L, 2L));
+
+        verify(cacheA).evict(Member.class, 1L);
+        verify(cacheB).evict(Member.class, 2L);
+        verify(cacheC).evict(Member.class, 1L);
+        assertThat(nodeB.getReceivedCount()).isEqualTo(1);
+        assertThat(nodeA.getReceivedCount()).isZero();
+    }
+
+    private EntityCacheInvalidator node(String nodeId, Cache cache) {
+        EntityCacheInvalidator node = new EntityCacheInvalidator(nodeId, cache, bus);
+        nodes.add(node);
+        return node;
+    }
+}
@@ -0,0 +1,165 @@
+package study.querydsl.controller;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.deadline.RequestDeadlines;
+import study.querydsl.dto.TeamMembersDto;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+import study.querydsl.repository.MemberUpdateBuffer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 비동기 응답은 요청 스레드 밖에서 트랜잭션 없이 조회하므로 데이터를 커밋해두고 끝나면 지운다.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureMockMvc
+class MemberControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+    @Autowired
+    EntityManager em;
+    @Autowired
+    EntityManagerFactory emf;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void before(){
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Team team = new Team("ctrlTeam");
+            em.persist(team);
+            for (int i = 1; i <= 5; i++) {
+                em.persist(new Member("ctrl" + i, 10 * i, team));
+            }
+        });
+    }
+
+    @AfterEach
+    void after(){
+        jdbcTemplate.update("delete from member where username like 'ctrl%'");
+        jdbcTemplate.update("delete from team where name = 'ctrlTeam'");
+        emf.getCache().evictAll();
+    }
+
+    @Test
+    void streamInChunksInIdOrder() throws Exception {
+        Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        MvcResult result = mockMvc.perform(get("/v1/members/stream")
+                        .param("teamName", "ctrlTeam")
+                        .param("chunkSize", "2")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(5000);
+
+        List<String> lines = Arrays.stream(result.getResponse().getContentAsString().split("\n"))
+                .filter(line -> !line.isBlank())
+                .collect(Collectors.toList());
+        assertThat(lines).hasSize(5);
+        assertThat(lines.stream().map(line -> line.replaceAll(".*\"username\":\"(ctrl\\d)\".*", "$1")))
+                .containsExactly("ctrl1", "ctrl2", "ctrl3", "ctrl4", "ctrl5");
+        //2, 2, 1 개씩 세 번. 마지막 chunk 가 chunkSize 보다 작으면 더 조회하지 않는다
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    void changesAreBuffered(@Autowired MemberUpdateBuffer buffer) throws Exception {
+        Long memberId = jdbcTemplate.queryForObject("select member_id from member where username = 'ctrl1'", Long.class);
+
+        mockMvc.perform(post("/v1/members/{memberId}/changes", memberId).param("age", "99"))
+                .andExpect(status().isAccepted());
+        mockMvc.perform(post("/v1/members/{memberId}/changes", memberId))
+                .andExpect(status().isBadRequest());
+
+        assertThat(buffer.readYourWrites(memberId,
+                () -> jdbcTemplate.queryForObject("select age from member where member_id = ?", Integer.class, memberId)))
+                .isEqualTo(99);
+    }
+
+    @Test
+    void topRunsWithinRequestDeadline() throws Exception {
+        MvcResult result = mockMvc.perform(get("/v2/members")
+                        .param("teamName", "ctrlTeam")
+                        .param("sort", "age,desc")
+                        .param("sort", "username,asc")
+                        .param("size", "2")
+                        .header(RequestDeadlines.HEADER, "3000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertThat((List<?>) result.getAsyncResult(5000))
+                .extracting("username")
+                .containsExactly("ctrl5", "ctrl4");
+    }
+
+    @Test
+    void teamsRunWithinRequestDeadline() throws Exception {
+        MvcResult result = mockMvc.perform(get("/v1/teams")
+                        .param("size", "100")
+                        .header(RequestDeadlines.HEADER, "3000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertThat((List<?>) result.getAsyncResult(5000))
+                .extracting("teamName")
+                .contains("ctrlTeam");
+    }
+
+    @Test
+    void teamPageSizeIsClampedBeforeOffset() throws Exception {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            for (int i = 1; i <= 150; i++) {
+                em.persist(new Team("ctrlPage" + i));
+            }
+        });
+        try {
+            //size=500 은 100 으로 줄어들고 page=1 은 101번째 팀부터다
+            List<?> clamped = teams("1", "500");
+            assertThat(clamped).isNotEmpty();
+            assertThat(clamped).extracting("teamId")
+                    .containsExactlyElementsOf(teams("1", "100").stream()
+                            .map(t -> ((TeamMembersDto) t).getTeamId())
+                            .collect(Collectors.toList()));
+        } finally {
+            jdbcTemplate.update("delete from team where name like 'ctrlPage%'");
+        }
+    }
+
+    private List<?> teams(String page, String size) throws Exception {
+        MvcResult result = mockMvc.perform(get("/v1/teams")
+                        .param("page", page)
+                        .param("size", size))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return (List<?>) result.getAsyncResult(5000);
+    }
+}
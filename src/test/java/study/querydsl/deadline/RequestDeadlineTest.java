@@ -0,0 +1,189 @@
+package study.querydsl.deadline;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.repository.MemberJpaRepository;
+import study.querydsl.repository.MemberSearchCoalescer;
+import study.querydsl.repository.TeamJpaRepository;
+
+import javax.persistence.EntityManager;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/**
+ * 취소를 확인하는 쿼리는 몇 분은 걸리므로 취소가 고장 나도 빌드가 멈추지 않도록
+ * 쿼리 자체에 타임아웃을 걸고 테스트에도 @Timeout 을 건다. 실행 스레드는 데몬이라 JVM 종료를 막지 않는다.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class RequestDeadlineTest {
+
+    private static final String SLOW_QUERY = "select count(*) from system_range(1, 10000000000) where mod(x, 7) = 3";
+    private static final int SLOW_QUERY_TIMEOUT_MILLIS = 20_000;
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    RequestDeadlines requestDeadlines;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+    @Autowired
+    TeamJpaRepository teamJpaRepository;
+    @Autowired
+    MockMvc mockMvc;
+    @MockBean
+    MemberSearchCoalescer memberSearchCoalescer;
+
+    @Test
+    @Timeout(60)
+    void abortCancelsRunningStatement() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        RequestDeadline deadline = requestDeadlines.start(30_000L);
+        long abortedBefore = requestDeadlines.getAbortedCount();
+        CountDownLatch attached = new CountDownLatch(1);
+
+        ExecutorService executor = daemonExecutor();
+        Future<Object> running = executor.submit(() -> tx.execute(status -> {
+            deadline.attach(em.unwrap(Session.class));
+            attached.countDown();
+            return slowQuery();
+        }));
+        attached.await(5, TimeUnit.SECONDS);
+        awaitSlowQuery(true);
+
+        requestDeadlines.abort(deadline);
+
+        assertThatThrownBy(() -> running.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+        executor.shutdownNow();
+        assertThat(deadline.getState()).isEqualTo(RequestDeadline.State.ABORTED);
+        assertThat(requestDeadlines.getAbortedCount() - abortedBefore).isEqualTo(1);
+        assertThat(requestDeadlines.getSavedConnectionMillis()).isPositive();
+    }
+
+    /**
+     * /v1/members 의 WebAsyncTask 경로. 요청 스레드 밖에서 마감 시간과 open-in-view 로 묶인 세션으로 쿼리가 실행되고,
+     * 클라이언트가 끊으면(비동기 요청의 onError) 실행 중인 statement 가 멈춰야 한다.
+     */
+    @Test
+    @Timeout(60)
+    void clientAbortCancelsAsyncRequestQuery() throws Exception {
+        long abortedBefore = requestDeadlines.getAbortedCount();
+        when(memberSearchCoalescer.search(any())).thenAnswer(invocation -> {
+            //MemberJpaRepository 가 쿼리마다 하는 것과 같다 (QueryDeadlines)
+            DeadlineContext.current().attach(em.unwrap(Session.class));
+            return List.of(slowQuery());
+        });
+
+        MvcResult result = mockMvc.perform(get("/v1/members").header(RequestDeadlines.HEADER, "30000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitSlowQuery(true);
+
+        MockAsyncContext asyncContext = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onError(new AsyncEvent(asyncContext, new IOException("client aborted")));
+        }
+
+        awaitSlowQuery(false);
+        assertThat(requestDeadlines.getAbortedCount() - abortedBefore).isEqualTo(1);
+    }
+
+    @Test
+    void expiredDeadlineSkipsQuery() throws Exception {
+        RequestDeadline deadline = requestDeadlines.start(1L);
+        Thread.sleep(20);
+
+        assertThatThrownBy(() -> DeadlineContext.call(deadline, () -> memberJpaRepository.search(new MemberSearchCondition())))
+                .isInstanceOf(RequestCancelledException.class);
+        //요청에서 불리는 다른 조회도 마감 시간을 본다
+        assertThatThrownBy(() -> DeadlineContext.call(deadline,
+                () -> memberJpaRepository.searchTop(new MemberSearchCondition(), Sort.by("username"), 20)))
+                .isInstanceOf(RequestCancelledException.class);
+        assertThatThrownBy(() -> DeadlineContext.call(deadline,
+                () -> memberJpaRepository.searchAfter(new MemberSearchCondition(), 0L, 20)))
+                .isInstanceOf(RequestCancelledException.class);
+        assertThatThrownBy(() -> DeadlineContext.call(deadline,
+                () -> memberJpaRepository.searchStream(new MemberSearchCondition(), 20).collectList().block()))
+                .isInstanceOf(RequestCancelledException.class);
+        assertThatThrownBy(() -> DeadlineContext.call(deadline, () -> teamJpaRepository.findTeamsWithMembers(0, 20)))
+                .isInstanceOf(RequestCancelledException.class);
+    }
+
+    @Test
+    void queryTimeoutRoundsUpToSeconds(){
+        RequestDeadline deadline = requestDeadlines.start(1500L);
+
+        assertThat(deadline.queryTimeoutSeconds()).isEqualTo(2);
+        assertThat(DeadlineContext.call(deadline, () -> memberJpaRepository.search(new MemberSearchCondition())))
+                .isNotNull();
+        deadline.complete();
+        assertThat(deadline.getState()).isEqualTo(RequestDeadline.State.COMPLETED);
+    }
+
+    @Test
+    void headerIsCappedAtMax(){
+        assertThat(requestDeadlines.start(Long.MAX_VALUE).remainingMillis()).isLessThanOrEqualTo(30_000L);
+        assertThat(requestDeadlines.start(null).remainingMillis()).isLessThanOrEqualTo(5_000L);
+    }
+
+    private Object slowQuery() {
+        //몇 분은 걸리는 쿼리. 취소되지 않아도 SLOW_QUERY_TIMEOUT_MILLIS 뒤에는 실패한다
+        return em.createNativeQuery(SLOW_QUERY)
+                .setHint("javax.persistence.query.timeout", SLOW_QUERY_TIMEOUT_MILLIS)
+                .getSingleResult();
+    }
+
+    //statement 가 실행 중인지 세션 목록에서 확인한다. (조회 쿼리 자신은 걸리지 않도록 문자열을 나눈다)
+    private void awaitSlowQuery(boolean running) throws InterruptedException {
+        long waitUntil = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < waitUntil) {
+            Long count = jdbcTemplate.queryForObject(
+                    "select count(*) from information_schema.sessions where statement like concat('%system', '_range%')",
+                    Long.class);
+            if ((count > 0) == running) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("slow query running=" + !running + " after 10s");
+    }
+
+    private static ExecutorService daemonExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "deadline-test");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,43 @@
+package study.querydsl.load;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 요청별 응답 시간(나노초)을 모아두었다가 백분위를 계산한다.
+ */
+class LatencyRecorder {
+
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicLong errors = new AtomicLong();
+
+    void record(long nanos) {
+        latencies.add(nanos);
+    }
+
+    void error() {
+        errors.incrementAndGet();
+    }
+
+    LoadReport report(String name, long elapsedNanos) {
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        return new LoadReport(name,
+                sorted.length,
+                errors.get(),
+                percentile(sorted, 50),
+                percentile(sorted, 95),
+                percentile(sorted, 99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1_000_000.0,
+                sorted.length / (elapsedNanos / 1_000_000_000.0));
+    }
+
+    private static double percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+}
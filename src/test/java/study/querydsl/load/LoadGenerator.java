@@ -0,0 +1,100 @@
+package study.querydsl.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * closed loop: threads 개의 사용자가 응답을 받자마자 다음 요청을 보낸다.
+ * open loop: 응답과 상관없이 초당 rate 개씩 요청을 보낸다. 응답 시간은 보내기로 한 시각부터 재서
+ * 서버가 밀릴 때 요청이 늦게 나가는 만큼도 응답 시간에 들어간다.
+ */
+class LoadGenerator {
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newCachedThreadPool())
+            .build();
+    private final String baseUrl;
+    private final List<String> paths;
+
+    LoadGenerator(String baseUrl, List<String> paths) {
+        this.baseUrl = baseUrl;
+        this.paths = paths;
+    }
+
+    LoadReport closedLoop(int threads, Duration duration) throws InterruptedException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    long sent = System.nanoTime();
+                    if (send()) {
+                        recorder.record(System.nanoTime() - sent);
+                    } else {
+                        recorder.error();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(duration.toMillis() + 30_000, TimeUnit.MILLISECONDS);
+        return recorder.report("closed", System.nanoTime() - start);
+    }
+
+    LoadReport openLoop(int ratePerSecond, Duration duration) throws InterruptedException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        long intervalNanos = 1_000_000_000L / ratePerSecond;
+        long total = duration.toNanos() / intervalNanos;
+        long start = System.nanoTime();
+        AtomicLong done = new AtomicLong();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            scheduler.schedule(() -> client.sendAsync(request(), HttpResponse.BodyHandlers.discarding())
+                            .whenComplete((response, e) -> {
+                                if (e == null && response.statusCode() == 200) {
+                                    recorder.record(System.nanoTime() - intended);
+                                } else {
+                                    recorder.error();
+                                }
+                                done.incrementAndGet();
+                            }),
+                    intended - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        long deadline = start + duration.toNanos() + TimeUnit.SECONDS.toNanos(30);
+        while (done.get() < total && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        scheduler.shutdownNow();
+        return recorder.report("open", System.nanoTime() - start);
+    }
+
+    private boolean send() {
+        try {
+            return client.send(request(), HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private HttpRequest request() {
+        String path = paths.get(ThreadLocalRandom.current().nextInt(paths.size()));
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+    }
+}
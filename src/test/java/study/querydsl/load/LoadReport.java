@@ -0,0 +1,82 @@
+package study.querydsl.load;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * 응답 시간은 ms, 처리량은 초당 요청 수.
+ */
+@Getter
+class LoadReport {
+
+    private final String name;
+    private final long requests;
+    private final long errors;
+    private final double p50;
+    private final double p95;
+    private final double p99;
+    private final double max;
+    private final double throughput;
+
+    LoadReport(String name, long requests, long errors, double p50, double p95, double p99, double max, double throughput) {
+        this.name = name;
+        this.requests = requests;
+        this.errors = errors;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+        this.throughput = throughput;
+    }
+
+    /**
+     * 기준값보다 tolerance 비율 이상 나빠진 항목. 기준값이 없는 항목은 비교하지 않는다.
+     */
+    List<String> regressions(Properties baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        checkUpper(regressions, baseline, "p95", p95, tolerance);
+        checkUpper(regressions, baseline, "p99", p99, tolerance);
+        String key = name + ".throughput";
+        if (baseline.containsKey(key)) {
+            double expected = Double.parseDouble(baseline.getProperty(key));
+            if (throughput < expected * (1 - tolerance)) {
+                regressions.add(String.format("%s %.1f < %.1f", key, throughput, expected));
+            }
+        }
+        if (errors > 0) {
+            regressions.add(name + ".errors " + errors);
+        }
+        return regressions;
+    }
+
+    private void checkUpper(List<String> regressions, Properties baseline, String metric, double actual, double tolerance) {
+        String key = name + "." + metric;
+        if (baseline.containsKey(key)) {
+            double expected = Double.parseDouble(baseline.getProperty(key));
+            if (actual > expected * (1 + tolerance)) {
+                regressions.add(String.format("%s %.2fms > %.2fms", key, actual, expected));
+            }
+        }
+    }
+
+    /**
+     * 이번 실행 결과를 기준값 형식으로. 처리량은 실행 환경마다 크게 달라서 기준값에 넣지 않는 편이 낫다면 지워도 된다.
+     */
+    Properties toBaseline() {
+        Properties baseline = new Properties();
+        baseline.setProperty(name + ".p95", String.format(Locale.ROOT, "%.2f", p95));
+        baseline.setProperty(name + ".p99", String.format(Locale.ROOT, "%.2f", p99));
+        baseline.setProperty(name + ".throughput", String.format(Locale.ROOT, "%.1f", throughput));
+        return baseline;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s requests=%d errors=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms throughput=%.1f/s",
+                name, requests, errors, p50, p95, p99, max, throughput);
+    }
+}
@@ -0,0 +1,143 @@
+package study.querydsl.load;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * /v1/members, /v2/members, /hello 에 검색 조건을 섞어서 부하를 주고 응답 시간 백분위와 처리량을 남긴다.
+ * load/baseline.properties 보다 나빠지면 실패한다. 실행한 mode 의 p95/p99 기준값이 없어도 실패한다. (오류는 항상 실패)
+ * ./gradlew loadTest -Pload.mode=open -Pload.rate=200 -Pload.duration=30
+ * <p>
+ * 기준값은 실제 실행 결과로만 만든다. 기준으로 삼을 커밋에서 -Pload.record-baseline=true 로 실행하면
+ * build/reports/load/baseline-{mode}.properties 에 측정값과 실행 조건이 남는다. 같은 장비에서 몇 번 돌려 보고
+ * 값을 load/baseline.properties 에 옮긴다.
+ */
+@Slf4j
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"logging.level.org.hibernate.SQL=info", "decorator.datasource.p6spy.enable-logging=false"})
+class MemberLoadTest {
+
+    @LocalServerPort
+    int port;
+    @Autowired
+    EntityManager em;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    int memberCount = Integer.getInteger("load.members", 10_000);
+
+    @BeforeEach
+    void seed(){
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            if (em.createQuery("select count(m) from Member m", Long.class).getSingleResult() > 0) {
+                return;
+            }
+            Team teamA = new Team("teamA");
+            Team teamB = new Team("teamB");
+            em.persist(teamA);
+            em.persist(teamB);
+            for (int i = 0; i < memberCount; i++) {
+                em.persist(new Member("member" + i, i % 100, i % 2 == 0 ? teamA : teamB));
+                if (i % 500 == 0) {
+                    em.flush();
+                    em.clear();
+                    teamA = em.getReference(Team.class, teamA.getId());
+                    teamB = em.getReference(Team.class, teamB.getId());
+                }
+            }
+        });
+    }
+
+    @Test
+    void load() throws Exception {
+        String mode = System.getProperty("load.mode", "closed");
+        Duration duration = Duration.ofSeconds(Long.getLong("load.duration", 10));
+        LoadGenerator generator = new LoadGenerator("http://localhost:" + port, trafficMix());
+
+        LoadReport report = mode.equals("open")
+                ? generator.openLoop(Integer.getInteger("load.rate", 100), duration)
+                : generator.closedLoop(Integer.getInteger("load.threads", 8), duration);
+
+        log.info("{}", report);
+        Path out = Paths.get("build", "reports", "load", report.getName() + ".txt");
+        Files.createDirectories(out.getParent());
+        Files.writeString(out, report + System.lineSeparator());
+
+        if (Boolean.getBoolean("load.record-baseline")) {
+            recordBaseline(report, mode, duration);
+            return;
+        }
+        Properties baseline = baseline();
+        //기준값이 없으면 회귀를 잡을 수 없으므로 통과시키지 않는다
+        assertThat(baseline.stringPropertyNames())
+                .as("no recorded baseline for mode=%s. record one with -Pload.record-baseline=true"
+                        + " and copy it to load/baseline.properties", mode)
+                .contains(mode + ".p95", mode + ".p99");
+        double tolerance = Double.parseDouble(System.getProperty("load.tolerance", "0.2"));
+        assertThat(report.regressions(baseline, tolerance)).isEmpty();
+    }
+
+    private void recordBaseline(LoadReport report, String mode, Duration duration) throws IOException {
+        Path out = Paths.get("build", "reports", "load", "baseline-" + mode + ".properties");
+        String conditions = String.format("recorded %s mode=%s threads=%s rate=%s duration=%ds members=%d java=%s os=%s cpus=%d",
+                LocalDateTime.now(), mode, Integer.getInteger("load.threads", 8), Integer.getInteger("load.rate", 100),
+                duration.getSeconds(), memberCount, System.getProperty("java.version"), System.getProperty("os.name"),
+                Runtime.getRuntime().availableProcessors());
+        try (Writer writer = Files.newBufferedWriter(out)) {
+            report.toBaseline().store(writer, conditions);
+        }
+        log.info("baseline recorded to {}. {}", out, conditions);
+    }
+
+    //자주 들어오는 검색 모양을 비율대로 넣는다
+    private List<String> trafficMix() {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            paths.add("/v1/members?teamName=teamA&ageGoe=30&ageLoe=40");
+        }
+        for (int i = 0; i < 3; i++) {
+            paths.add("/v1/members?username=member" + (i * 37));
+        }
+        paths.add("/v1/members?usernameContains=ber12");
+        paths.add("/v2/members?sort=age,desc&sort=username,asc&size=20");
+        paths.add("/hello");
+        return paths;
+    }
+
+    private Properties baseline() throws IOException {
+        Properties baseline = new Properties();
+        ClassPathResource resource = new ClassPathResource("load/baseline.properties");
+        if (resource.exists()) {
+            try (InputStream in = resource.getInputStream()) {
+                baseline.load(in);
+            }
+        }
+        return baseline;
+    }
+}
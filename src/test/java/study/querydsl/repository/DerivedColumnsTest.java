@@ -0,0 +1,105 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.types.Expression;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static study.querydsl.entity.QMember.*;
+
+@SpringBootTest
+@Transactional
+class DerivedColumnsTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+    JPAQueryFactory query;
+
+    @BeforeEach
+    void before(){
+        query = new JPAQueryFactory(em);
+        Team teamA = new Team("teamA");
+        em.persist(teamA);
+        em.persist(new Member("member1", 10, teamA));
+        em.persist(new Member("member2", 20, teamA));
+        em.persist(new Member("member3", 30, teamA));
+        em.persist(new Member("member4", 40, teamA));
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    void rewriteToStoredColumn(){
+        assertThat(DerivedColumns.rewrite(DerivedColumns.AGE_BRACKET)).isEqualTo(member.ageBracket);
+        //같은 식을 새로 만들어도 같은 컬럼으로 바뀐다
+        assertThat(DerivedColumns.rewrite(member.username.concat("_").concat(member.age.stringValue())))
+                .isEqualTo(member.usernameAge);
+        assertThat(DerivedColumns.rewrite(member.username.eq(DerivedColumns.USERNAME_SHORT)))
+                .isEqualTo(member.username.eq(member.usernameShort));
+    }
+
+    @Test
+    void storedValuesMatchExpressions(){
+        assertThat(fetch(DerivedColumns.AGE_BRACKET)).isEqualTo(fetch(member.ageBracket));
+        assertThat(fetch(DerivedColumns.USERNAME_AGE)).isEqualTo(fetch(member.usernameAge));
+        assertThat(fetch(DerivedColumns.USERNAME_SHORT)).isEqualTo(fetch(member.usernameShort));
+
+        List<Member> result = query.selectFrom(member)
+                .where(DerivedColumns.rewrite(DerivedColumns.USERNAME_AGE.eq("member1_10")))
+                .fetch();
+        assertThat(result).extracting("username").containsExactly("member1");
+    }
+
+    @Test
+    void rewriteQuery(){
+        JPAQuery<String> rewritten = DerivedColumns.rewrite(query
+                .select(DerivedColumns.USERNAME_AGE)
+                .from(member)
+                .where(DerivedColumns.AGE_BRACKET.eq("21~30"))
+                .orderBy(DerivedColumns.USERNAME_SHORT.asc()));
+
+        assertThat(rewritten.getMetadata().getProjection()).isEqualTo(member.usernameAge);
+        assertThat(rewritten.getMetadata().getWhere()).isEqualTo(member.ageBracket.eq("21~30"));
+        assertThat(rewritten.getMetadata().getOrderBy()).containsExactly(member.usernameShort.asc());
+        assertThat(rewritten.fetch()).containsExactly("member3_30");
+    }
+
+    @Test
+    void searchByStoredColumn(){
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeBracket("0~20살");
+        assertThat(memberJpaRepository.search(condition)).extracting("username")
+                .containsExactlyInAnyOrder("member1", "member2");
+        assertThat(memberJpaRepository.searchAfter(condition, 0L, 10)).extracting("username")
+                .containsExactly("member1", "member2");
+    }
+
+    @Test
+    void maintainedOnUpdate(){
+        Member member1 = query.selectFrom(member).where(member.username.eq("member1")).fetchOne();
+        member1.setAge(25);
+        memberJpaRepository.bulkUpdateUsername("비회원", 21);
+        //벌크 연산 전에 flush 된 변경과 벌크 연산 모두 반영된다
+        assertThat(fetch(member.usernameAge)).contains("member1_25", "비회원_20");
+        assertThat(query.select(member.ageBracket).from(member).where(member.age.eq(25)).fetchOne())
+                .isEqualTo("21~30");
+    }
+
+    private List<String> fetch(Expression<String> expression){
+        return query.select(expression).from(member).orderBy(member.id.asc()).fetch();
+    }
+}
@@ -0,0 +1,81 @@
+package study.querydsl.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.ArchivedMember;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SpringBootTest(properties = "member.archive.batch-size=2")
+@Transactional
+class MemberArchiverTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+    @Autowired
+    MemberArchiver archiver;
+
+    @Test
+    void archiveInactive(){
+        Team teamA = new Team("archiveTeam");
+        em.persist(teamA);
+        Member member1 = new Member("archive1", 10, teamA);
+        Member member2 = new Member("archive2", 20, teamA);
+        Member member3 = new Member("archive3", 30, teamA);
+        Member member4 = new Member("active4", 40, teamA);
+        em.persist(member1);
+        em.persist(member2);
+        em.persist(member3);
+        em.persist(member4);
+        em.flush();
+        em.clear();
+
+        jdbcTemplate.update("update member set last_active_at = ? where username like 'archive%'",
+                LocalDateTime.of(1990, 1, 1, 0, 0));
+
+        //batch-size=2 라서 두 번에 나눠 옮긴다
+        long archived = archiver.archiveInactiveBefore(LocalDateTime.of(2000, 1, 1, 0, 0));
+        em.clear();
+
+        assertThat(archived).isEqualTo(3);
+        assertThat(em.find(Member.class, member1.getId())).isNull();
+        ArchivedMember archivedMember = em.find(ArchivedMember.class, member1.getId());
+        assertThat(archivedMember.getUsername()).isEqualTo("archive1");
+        assertThat(archivedMember.getAgeBracket()).isEqualTo("0~20살");
+        assertThat(archivedMember.getArchivedAt()).isNotNull();
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("archiveTeam");
+        List<MemberTeamDto> hot = memberJpaRepository.search(condition);
+        assertThat(hot).extracting("username").containsExactly("active4");
+
+        condition.setIncludeArchived(true);
+        List<MemberTeamDto> all = memberJpaRepository.search(condition);
+        assertThat(all).extracting("username")
+                .containsExactlyInAnyOrder("active4", "archive1", "archive2", "archive3");
+
+        //정렬/keyset 조회도 같은 조건이면 같은 회원을 본다. (스트림은 chunk 마다 searchAfter 를 부른다)
+        assertThat(memberJpaRepository.searchTop(condition, Sort.by(Sort.Order.desc("age"), Sort.Order.asc("username")), 3))
+                .extracting("username")
+                .containsExactly("active4", "archive3", "archive2");
+        assertThat(memberJpaRepository.searchAfter(condition, member1.getId(), 2))
+                .extracting("username")
+                .containsExactly("archive2", "archive3");
+    }
+}
@@ -67,4 +67,22 @@ class MemberJpaRepositoryTest {
         assertThat(result).extracting("username").containsExactly("member4");
 
     }
-}
\ No newline at end of file
+    @Test
+    void searchAfterTest(){
+        Team teamA = new Team("teamA");
+        em.persist(teamA);
+        for (int i = 0; i < 5; i++) {
+            em.persist(new Member("member" + i, i * 10, teamA));
+        }
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("teamA");
+        List<MemberTeamDto> first = memberJpaRepository.searchAfter(condition, 0L, 2);
+        List<MemberTeamDto> second = memberJpaRepository.searchAfter(condition, first.get(1).getMemberId(), 2);
+        List<MemberTeamDto> last = memberJpaRepository.searchAfter(condition, second.get(1).getMemberId(), 2);
+
+        assertThat(first).extracting("username").containsExactly("member0", "member1");
+        assertThat(second).extracting("username").containsExactly("member2", "member3");
+        assertThat(last).extracting("username").containsExactly("member4");
+    }
+}
@@ -0,0 +1,178 @@
+package study.querydsl.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(properties = "member.read-model.enabled=true")
+@Transactional
+class MemberReadModelTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+    @Autowired
+    MemberReadModel readModel;
+
+    @Test
+    void searchSameAsDatabase(){
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        em.persist(teamA);
+        em.persist(teamB);
+
+        memberJpaRepository.save(new Member("member1", 10, teamA));
+        memberJpaRepository.save(new Member("member2", 20, teamA));
+        memberJpaRepository.save(new Member("member3", 30, teamB));
+        memberJpaRepository.save(new Member("member4", 40, teamB));
+        em.flush();
+        readModel.rebuild();
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(35);
+        condition.setAgeLoe(40);
+        condition.setTeamName("teamB");
+
+        List<MemberTeamDto> result = readModel.search(condition);
+        assertThat(result).extracting("username").containsExactly("member4");
+        assertThat(result).isEqualTo(memberJpaRepository.search(condition));
+    }
+
+    @Test
+    void putReplacesIndexes(){
+        readModel.put(new MemberTeamDto(1000L, "before", 10, 1L, "teamA"));
+        readModel.put(new MemberTeamDto(1000L, "after", 11, 2L, "teamB"));
+
+        assertThat(readModel.findByUsername("before")).isEmpty();
+        assertThat(readModel.findByUsername("after")).extracting("age").containsExactly(11);
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("teamA");
+        assertThat(readModel.search(condition)).extracting("memberId").doesNotContain(1000L);
+    }
+
+    @Test
+    void ageRangeWithTeam(){
+        readModel.put(new MemberTeamDto(2001L, "m1", 10, 1L, "teamC"));
+        readModel.put(new MemberTeamDto(2002L, "m2", 20, 1L, "teamC"));
+        readModel.put(new MemberTeamDto(2003L, "m3", 30, 2L, "teamD"));
+        readModel.put(new MemberTeamDto(2004L, "m4", 40, 2L, "teamD"));
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(15);
+        condition.setAgeLoe(35);
+        condition.setTeamName("teamD");
+
+        assertThat(readModel.search(condition)).extracting("username").containsExactly("m3");
+        assertThat(readModel.estimate(condition)).isBetween(1L, 2L);
+
+        condition.setTeamName(null);
+        assertThat(readModel.search(condition)).extracting("username").contains("m2", "m3");
+
+        readModel.put(new MemberTeamDto(2003L, "m3", 50, 2L, "teamD"));
+        condition.setTeamName("teamD");
+        assertThat(readModel.search(condition)).isEmpty();
+    }
+
+    @Test
+    void warmStartFromSnapshot(@TempDir Path dir) throws Exception {
+        Team teamA = new Team("snapshotTeam");
+        em.persist(teamA);
+        Member member1 = new Member("snapshot1", 10, teamA);
+        em.persist(member1);
+        em.flush();
+
+        Path path = dir.resolve("members.snapshot");
+        MemberSnapshotFile.write(path, LocalDateTime.now(),
+                memberJpaRepository.searchAfter(new MemberSearchCondition(), 0L, Integer.MAX_VALUE).iterator());
+
+        //스냅샷 이후의 수정과 추가
+        member1.setAge(11);
+        em.persist(new Member("snapshot2", 20, teamA));
+        em.flush();
+
+        readModel.warmStart(MemberSnapshotFile.open(path));
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("snapshotTeam");
+        assertThat(readModel.search(condition))
+                .extracting("username", "age")
+                .containsExactly(tuple("snapshot1", 11), tuple("snapshot2", 20));
+        assertThat(readModel.search(condition)).isEqualTo(memberJpaRepository.search(condition));
+    }
+
+    @Test
+    void warmStartAppliesTeamRename(@TempDir Path dir) throws Exception {
+        Team teamA = new Team("renameBefore");
+        em.persist(teamA);
+        em.persist(new Member("rename1", 10, teamA));
+        em.flush();
+
+        Path path = dir.resolve("members.snapshot");
+        MemberSnapshotFile.write(path, LocalDateTime.now(),
+                memberJpaRepository.searchAfter(new MemberSearchCondition(), 0L, Integer.MAX_VALUE).iterator());
+
+        //회원은 그대로 두고 팀 이름만 바꾼다
+        teamA.setName("renameAfter");
+        em.flush();
+
+        readModel.warmStart(MemberSnapshotFile.open(path));
+
+        assertThat(readModel.findByUsername("rename1")).extracting("teamName").containsExactly("renameAfter");
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("renameBefore");
+        assertThat(readModel.search(condition)).isEmpty();
+    }
+
+    @Test
+    void putDuringRebuildSurvivesSwap(){
+        MemberJpaRepository repository = mock(MemberJpaRepository.class);
+        MemberReadModel model = new MemberReadModel(repository, "");
+        when(repository.search(any())).thenAnswer(invocation -> {
+            //DB 를 읽는 사이에 커밋된 저장
+            model.put(new MemberTeamDto(1L, "saved", 11, 1L, "teamA"));
+            return List.of(new MemberTeamDto(1L, "loaded", 10, 1L, "teamA"),
+                    new MemberTeamDto(2L, "member2", 20, 1L, "teamA"));
+        });
+
+        model.rebuild();
+
+        assertThat(model.findByUsername("saved")).extracting("age").containsExactly(11);
+        assertThat(model.findByUsername("loaded")).isEmpty();
+        assertThat(model.size()).isEqualTo(2);
+    }
+
+    @Test
+    void bulkBuiltIndexesMatchIncremental(){
+        List<MemberTeamDto> rows = new ArrayList<>();
+        for (long id = 5000; id > 4000; id--) {
+            rows.add(new MemberTeamDto(id, "bulk" + id, (int) (id % 7), id % 2 == 0 ? 1L : 2L, id % 2 == 0 ? "even" : "odd"));
+        }
+        MemberReadModel.Snapshot built = MemberReadModel.Snapshot.of(rows);
+        MemberReadModel.Snapshot incremental = new MemberReadModel.Snapshot();
+        rows.forEach(incremental::put);
+
+        assertThat(built.byTeamName.get("even")).containsExactly(incremental.byTeamName.get("even"));
+        assertThat(built.byAge.range(2, 4)).containsExactly(incremental.byAge.range(2, 4));
+        assertThat(built.byAge.get(3)).isSorted();
+        assertThat(built.size()).isEqualTo(1000);
+    }
+}
@@ -0,0 +1,100 @@
+package study.querydsl.repository;
+
+import org.junit.jupiter.api.Test;
+import study.querydsl.deadline.DeadlineContext;
+import study.querydsl.deadline.RequestCancelledException;
+import study.querydsl.deadline.RequestDeadline;
+import study.querydsl.deadline.RequestDeadlines;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class MemberSearchCoalescerTest {
+
+    @Test
+    void concurrentIdenticalSearchRunsOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MemberJpaRepository repository = mock(MemberJpaRepository.class);
+        when(repository.search(any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of(new MemberTeamDto(1L, "member1", 10, 1L, "teamA"));
+        });
+        MemberSearchCoalescer coalescer = new MemberSearchCoalescer(repository);
+
+        int threads = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<MemberTeamDto>>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            MemberSearchCondition condition = new MemberSearchCondition();
+            condition.setTeamName("teamA");
+            //빈 문자열은 조건이 없는 것과 같은 검색으로 본다
+            condition.setUsername(i % 2 == 0 ? "" : null);
+            futures.add(executor.submit(() -> coalescer.search(condition)));
+        }
+        while (coalescer.getRequestCount() < threads) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        for (Future<List<MemberTeamDto>> future : futures) {
+            assertThat(future.get(5, TimeUnit.SECONDS)).extracting("username").containsExactly("member1");
+        }
+        executor.shutdown();
+
+        verify(repository, times(1)).search(any());
+        assertThat(coalescer.getExecutionCount()).isEqualTo(1);
+        assertThat(coalescer.getCoalescingRatio()).isEqualTo(10.0);
+    }
+
+    @Test
+    void waitingRequestRetriesWhenLeaderIsCancelled() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        MemberJpaRepository repository = mock(MemberJpaRepository.class);
+        when(repository.search(any())).thenAnswer(invocation -> {
+            if (calls.getAndIncrement() == 0) {
+                release.await(5, TimeUnit.SECONDS);
+                throw new IllegalStateException("statement canceled");
+            }
+            return List.of(new MemberTeamDto(1L, "member1", 10, 1L, "teamA"));
+        });
+        MemberSearchCoalescer coalescer = new MemberSearchCoalescer(repository);
+        RequestDeadlines deadlines = new RequestDeadlines(5000, 30000);
+        RequestDeadline leaderDeadline = deadlines.start(null);
+        RequestDeadline followerDeadline = deadlines.start(null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<List<MemberTeamDto>> leader = executor.submit(
+                () -> DeadlineContext.call(leaderDeadline, () -> coalescer.search(new MemberSearchCondition())));
+        while (coalescer.getRequestCount() < 1) {
+            Thread.sleep(10);
+        }
+        Future<List<MemberTeamDto>> follower = executor.submit(
+                () -> DeadlineContext.call(followerDeadline, () -> coalescer.search(new MemberSearchCondition())));
+        while (coalescer.getRequestCount() < 2) {
+            Thread.sleep(10);
+        }
+        deadlines.abort(leaderDeadline);
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(RequestCancelledException.class);
+        assertThat(follower.get(5, TimeUnit.SECONDS)).extracting("username").containsExactly("member1");
+        executor.shutdown();
+
+        assertThat(coalescer.getExecutionCount()).isEqualTo(2);
+        assertThat(deadlines.getAbortedCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,64 @@
+package study.querydsl.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import study.querydsl.dto.MemberTeamDto;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+class MemberSnapshotFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeAndMap() throws IOException {
+        Path path = dir.resolve("members.snapshot");
+        LocalDateTime createdAt = LocalDateTime.of(2021, 3, 1, 12, 30, 15, 123_456_000);
+        List<MemberTeamDto> rows = List.of(
+                new MemberTeamDto(1L, "member1", 10, 100L, "teamA"),
+                new MemberTeamDto(2L, "회원2", 20, 100L, "teamA"),
+                new MemberTeamDto(5L, null, 30, null, null));
+
+        assertThat(MemberSnapshotFile.write(path, createdAt, rows.iterator())).isEqualTo(3);
+
+        MemberSnapshotFile file = MemberSnapshotFile.open(path);
+        assertThat(file.size()).isEqualTo(3);
+        assertThat(file.getHighWaterId()).isEqualTo(5L);
+        assertThat(file.getCreatedAt()).isEqualTo(createdAt);
+        assertThat(file.get(0)).isEqualTo(rows.get(0));
+        assertThat(file.get(1)).isEqualTo(rows.get(1));
+        assertThat(file.get(2)).isEqualTo(rows.get(2));
+        assertThat(file.teamId(2)).isNull();
+    }
+
+    @Test
+    void rejectTruncatedFile() throws IOException {
+        Path path = dir.resolve("members.snapshot");
+        MemberSnapshotFile.write(path, LocalDateTime.now(),
+                List.of(new MemberTeamDto(1L, "member1", 10, 1L, "teamA")).iterator());
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertThatThrownBy(() -> MemberSnapshotFile.open(path))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void rowsMustBeOrdered() {
+        Path path = dir.resolve("members.snapshot");
+        List<MemberTeamDto> rows = List.of(
+                new MemberTeamDto(2L, "member2", 20, null, null),
+                new MemberTeamDto(1L, "member1", 10, null, null));
+
+        assertThatThrownBy(() -> MemberSnapshotFile.write(path, LocalDateTime.now(), rows.iterator()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
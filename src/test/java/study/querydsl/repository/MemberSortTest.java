@@ -0,0 +1,117 @@
+package study.querydsl.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.Member;
+
+import javax.persistence.EntityManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "study.querydsl.repository.MemberSortTest$SqlCapture")
+@Transactional
+class MemberSortTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    /**
+     * 허용된 정렬마다 searchTop 이 실제로 만든 SQL 의 실행계획을 보고
+     * member 를 전체 스캔하지 않고 정렬 인덱스 순서로 읽는지(filesort 가 없는지) 확인한다.
+     */
+    @Test
+    void everyAllowedSortIsIndexSorted(){
+        for (MemberSort memberSort : MemberSort.values()) {
+            SqlCapture.clear();
+            memberJpaRepository.searchTop(new MemberSearchCondition(), sortOf(memberSort), 20);
+
+            assertThat(SqlCapture.statements()).as(memberSort.name()).hasSize(1);
+            String sql = SqlCapture.statements().get(0);
+            //파라미터는 limit 하나뿐이다
+            assertThat(sql.chars().filter(c -> c == '?').count()).as(sql).isEqualTo(1);
+            String plan = jdbcTemplate.queryForObject("explain " + sql.replace("?", "20"), String.class);
+
+            assertThat(plan).as(memberSort.name()).containsIgnoringCase(memberSort.getIndexName());
+            assertThat(plan).as(memberSort.name()).containsIgnoringCase("index sorted");
+            assertThat(plan).as(memberSort.name()).doesNotContainIgnoringCase("tableScan");
+        }
+    }
+
+    @Test
+    void notAllowedSort(){
+        assertThatThrownBy(() -> MemberSort.of(Sort.by(Sort.Order.desc("teamName"))))
+                .isInstanceOf(UnsupportedSortException.class);
+    }
+
+    @Test
+    void topNWithNullsLast(){
+        em.persist(new Member("member1", 10));
+        em.persist(new Member(null, 100));
+        em.persist(new Member("member5", 100));
+        em.persist(new Member("member6", 100));
+        em.persist(new Member("member7", 90));
+        em.flush();
+
+        Sort sort = Sort.by(Sort.Order.desc("age"), Sort.Order.asc("username").nullsLast());
+        MemberSearchCondition condition = new MemberSearchCondition();
+
+        List<MemberTeamDto> top2 = memberJpaRepository.searchTop(condition, sort, 2);
+        assertThat(top2).extracting("username").containsExactly("member5", "member6");
+
+        List<MemberTeamDto> top4 = memberJpaRepository.searchTop(condition, sort, 4);
+        assertThat(top4).extracting("username").containsExactly("member5", "member6", null, "member7");
+
+        List<MemberTeamDto> byUsername = memberJpaRepository.searchTop(condition,
+                Sort.by(Sort.Order.asc("username").nullsLast()), 10);
+        assertThat(byUsername).extracting("username")
+                .containsExactly("member1", "member5", "member6", "member7", null);
+    }
+
+    private static Sort sortOf(MemberSort memberSort) {
+        List<Sort.Order> orders = new ArrayList<>();
+        for (String column : memberSort.getSql().split(", ")) {
+            String[] parts = column.split(" ");
+            String property = parts[0].equals("member_id") ? "id" : parts[0];
+            orders.add(new Sort.Order(Sort.Direction.fromString(parts[1]), property));
+        }
+        return Sort.by(orders);
+    }
+
+    /**
+     * Hibernate 가 실행하는 SQL 을 그대로 모은다.
+     */
+    public static class SqlCapture implements StatementInspector {
+
+        private static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        static void clear() {
+            STATEMENTS.clear();
+        }
+
+        static List<String> statements() {
+            return STATEMENTS;
+        }
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+}
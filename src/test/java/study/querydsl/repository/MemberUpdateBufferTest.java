@@ -0,0 +1,174 @@
+package study.querydsl.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * 버퍼는 별도 트랜잭션으로 쓰므로 테스트 데이터도 커밋해두고 끝나면 지운다.
+ */
+@SpringBootTest(properties = "member.write-behind.flush-interval-ms=3600000")
+@RecordApplicationEvents
+class MemberUpdateBufferTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    EntityManagerFactory emf;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    MemberUpdateBuffer buffer;
+    @Autowired
+    ApplicationEvents events;
+
+    TransactionTemplate tx;
+    Team teamA;
+    Team teamB;
+    Member member1;
+
+    @BeforeEach
+    void before(){
+        tx = new TransactionTemplate(transactionManager);
+        tx.executeWithoutResult(status -> {
+            teamA = new Team("wbTeamA");
+            teamB = new Team("wbTeamB");
+            em.persist(teamA);
+            em.persist(teamB);
+            member1 = new Member("wbMember1", 10, teamA);
+            em.persist(member1);
+        });
+    }
+
+    @AfterEach
+    void after(){
+        buffer.flush();
+        jdbcTemplate.update("delete from member where username like 'wb%'");
+        jdbcTemplate.update("delete from team where name like 'wb%'");
+        emf.getCache().evictAll();
+    }
+
+    @Test
+    void coalesce(){
+        long writtenBefore = buffer.getWrittenCount();
+        buffer.changeAge(member1.getId(), 11);
+        buffer.changeAge(member1.getId(), 12);
+        buffer.changeTeam(member1.getId(), teamB.getId());
+        buffer.changeAge(member1.getId(), 13);
+
+        assertThat(buffer.getPendingCount()).isEqualTo(1);
+        assertThat(buffer.flush()).isEqualTo(1);
+        assertThat(buffer.getWrittenCount() - writtenBefore).isEqualTo(1);
+
+        Member findMember = findMember();
+        assertThat(findMember.getAge()).isEqualTo(13);
+        assertThat(findMember.getTeam().getId()).isEqualTo(teamB.getId());
+    }
+
+    @Test
+    void readYourWrites(){
+        buffer.changeAge(member1.getId(), 20);
+
+        Integer stale = buffer.read(member1.getId(), Duration.ofHours(1), this::age);
+        assertThat(stale).isEqualTo(10);
+
+        Integer fresh = buffer.readYourWrites(member1.getId(), this::age);
+        assertThat(fresh).isEqualTo(20);
+        assertThat(buffer.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    void failedWriteIsRequeued(){
+        long failedBefore = buffer.getFailedCount();
+        buffer.changeAge(member1.getId(), 20);
+        //없는 팀이라 외래키 위반
+        buffer.changeTeam(member1.getId(), -1L);
+
+        assertThatThrownBy(() -> buffer.flush()).isInstanceOf(DataAccessException.class);
+        assertThat(buffer.getPendingCount()).isEqualTo(1);
+        assertThat(buffer.getFailedCount() - failedBefore).isEqualTo(1);
+
+        //다시 넣은 변경보다 나중 변경이 이긴다
+        buffer.changeTeam(member1.getId(), teamB.getId());
+        assertThat(buffer.flush()).isEqualTo(1);
+
+        Member findMember = findMember();
+        assertThat(findMember.getAge()).isEqualTo(20);
+        assertThat(findMember.getTeam().getId()).isEqualTo(teamB.getId());
+    }
+
+    @Test
+    void onlyFailedRowIsRequeued(){
+        Member member2 = tx.execute(status -> {
+            Member member = new Member("wbMember2", 20, em.find(Team.class, teamA.getId()));
+            em.persist(member);
+            return member;
+        });
+        long writtenBefore = buffer.getWrittenCount();
+        buffer.changeAge(member1.getId(), 11);
+        //없는 팀이라 외래키 위반
+        buffer.changeTeam(member2.getId(), -1L);
+
+        assertThatThrownBy(() -> buffer.flush()).isInstanceOf(DataAccessException.class);
+
+        //같은 batch 의 다른 회원은 반영되고 실패한 회원만 남는다
+        assertThat(age()).isEqualTo(11);
+        assertThat(buffer.getWrittenCount() - writtenBefore).isEqualTo(1);
+        assertThat(buffer.getPendingCount()).isEqualTo(1);
+        assertThat(buffer.read(member1.getId(), Duration.ZERO, this::age)).isEqualTo(11);
+    }
+
+    @Test
+    void writtenMembersArePublished(){
+        buffer.changeAge(member1.getId(), 21);
+        buffer.changeTeam(member1.getId(), teamB.getId());
+        buffer.flush();
+
+        //MemberReadModel 이 받는 이벤트
+        assertThat(events.stream(MemberSavedEvent.class).map(MemberSavedEvent::getMember))
+                .extracting("memberId", "age", "teamName")
+                .containsExactly(tuple(member1.getId(), 21, "wbTeamB"));
+    }
+
+    @Test
+    void flushSurvivesCallerRollback(){
+        tx.executeWithoutResult(status -> {
+            buffer.changeAge(member1.getId(), 30);
+            buffer.flush(member1.getId());
+            status.setRollbackOnly();
+        });
+
+        assertThat(age()).isEqualTo(30);
+    }
+
+    private Integer age() {
+        return jdbcTemplate.queryForObject("select age from member where member_id = ?", Integer.class, member1.getId());
+    }
+
+    private Member findMember() {
+        return tx.execute(status -> {
+            Member member = em.find(Member.class, member1.getId());
+            member.getTeam().getId();
+            return member;
+        });
+    }
+}
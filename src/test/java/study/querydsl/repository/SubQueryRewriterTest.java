@@ -0,0 +1,177 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.SubQueryExpression;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.QMember;
+import study.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+
+import java.util.Collection;
+import java.util.List;
+
+import static com.querydsl.jpa.JPAExpressions.*;
+import static org.assertj.core.api.Assertions.*;
+import static study.querydsl.entity.QMember.*;
+
+/**
+ * 원래 서브쿼리와 재작성한 쿼리의 결과가 같은지 확인한다.
+ */
+@SpringBootTest
+@Transactional
+class SubQueryRewriterTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    SubQueryRewriter rewriter;
+    JPAQueryFactory query;
+
+    QMember memberSub = new QMember("memberSub");
+
+    @BeforeEach
+    void before(){
+        query = new JPAQueryFactory(em);
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        em.persist(teamA);
+        em.persist(teamB);
+        em.persist(new Member("member1", 10, teamA));
+        em.persist(new Member("member2", 20, teamA));
+        em.persist(new Member("member3", 30, teamB));
+        em.persist(new Member("member4", 45, teamB));
+    }
+
+    @Test
+    void max(){
+        assertSameMembers(member.age.eq(select(memberSub.age.max()).from(memberSub)));
+    }
+
+    @Test
+    void avg(){
+        //평균 26.25 -> 정수 경계로 바꿔도 결과가 같아야 한다
+        assertSameMembers(member.age.goe(select(memberSub.age.avg()).from(memberSub)));
+        assertSameMembers(member.age.gt(select(memberSub.age.avg()).from(memberSub)));
+        assertSameMembers(member.age.loe(select(memberSub.age.avg()).from(memberSub)));
+        assertSameMembers(member.age.lt(select(memberSub.age.avg()).from(memberSub)));
+    }
+
+    @Test
+    void avgEqualityKeepsSubQuery(){
+        //평균 26.25 는 어떤 정수와도 같지 않지만 그 판단은 DB 에 맡긴다
+        Predicate eq = member.age.eq(select(memberSub.age.avg()).from(memberSub));
+        Predicate ne = member.age.ne(select(memberSub.age.avg()).from(memberSub));
+
+        assertThat(rewriter.rewrite(eq)).isEqualTo(eq);
+        assertThat(rewriter.rewrite(ne)).isEqualTo(ne);
+        assertSameMembers(eq);
+        assertSameMembers(ne);
+    }
+
+    @Test
+    void existsIsKept(){
+        //여러 행이 나오는 서브쿼리
+        Predicate exists = select(memberSub).from(memberSub).where(memberSub.age.gt(15)).exists();
+        Predicate notExists = select(memberSub).from(memberSub).where(memberSub.age.gt(100)).notExists();
+
+        assertThat(rewriter.rewrite(exists)).isEqualTo(exists);
+        assertThat(rewriter.rewrite(notExists)).isEqualTo(notExists);
+        assertSameMembers(exists);
+        assertSameMembers(notExists);
+    }
+
+    @Test
+    void anyAndAllAreKept(){
+        Predicate any = member.age.gt(ExpressionUtils.any(select(memberSub.age).from(memberSub).where(memberSub.age.lt(30))));
+        Predicate all = member.age.goe(ExpressionUtils.all(select(memberSub.age).from(memberSub)));
+
+        assertThat(rewriter.rewrite(any)).isEqualTo(any);
+        assertThat(rewriter.rewrite(all)).isEqualTo(all);
+        assertSameMembers(any);
+        assertSameMembers(all);
+    }
+
+    @Test
+    void in(){
+        assertSameMembers(member.age.in(select(memberSub.age).from(memberSub).where(memberSub.age.gt(10))));
+        assertSameMembers(member.age.in(select(memberSub.age).from(memberSub).where(memberSub.age.gt(100))));
+        assertSameMembers(member.age.notIn(select(memberSub.age).from(memberSub).where(memberSub.age.gt(10))));
+    }
+
+    @Test
+    void inValuesAreDistinct(){
+        em.persist(new Member("member5", 10));
+        em.persist(new Member("member6", 10));
+        Predicate predicate = member.age.in(select(memberSub.age).from(memberSub).where(memberSub.age.lt(30)));
+
+        Operation<?> rewritten = (Operation<?>) rewriter.rewrite(predicate);
+        Collection<?> values = (Collection<?>) ((Constant<?>) rewritten.getArg(1)).getConstant();
+        assertThat(values).containsExactlyInAnyOrder(10, 20);
+        assertSameMembers(predicate);
+    }
+
+    @Test
+    void tooManyInValuesKeepSubQuery(){
+        SubQueryRewriter small = new SubQueryRewriter(em, 2);
+        Predicate predicate = member.age.in(select(memberSub.age).from(memberSub));
+
+        Operation<?> rewritten = (Operation<?>) small.rewrite(predicate);
+        assertThat(rewritten.getArg(1)).isInstanceOf(SubQueryExpression.class);
+        assertSameMembers(predicate);
+    }
+
+    @Test
+    void nullScalarKeepsSubQuery(){
+        //결과가 없으면 max 는 null. not 으로 감싸도 SQL 처럼 아무 행도 나오지 않아야 한다
+        Predicate predicate = member.age.eq(select(memberSub.age.max()).from(memberSub).where(memberSub.age.gt(100))).not();
+
+        assertThat(query.selectFrom(member).where(rewriter.rewrite(predicate)).fetch()).isEmpty();
+        assertSameMembers(predicate);
+    }
+
+    @Test
+    void correlatedIsKept(){
+        Predicate correlated = member.age.eq(select(memberSub.age.max())
+                .from(memberSub)
+                .where(memberSub.team.eq(member.team)));
+
+        assertThat(rewriter.rewrite(correlated)).isEqualTo(correlated);
+        assertSameMembers(correlated);
+    }
+
+    @Test
+    void selectSubQuery(){
+        List<Tuple> original = query
+                .select(member.username, select(memberSub.age.avg()).from(memberSub))
+                .from(member)
+                .orderBy(member.username.asc())
+                .fetch();
+        List<Tuple> rewritten = query
+                .select(member.username, rewriter.rewrite(select(memberSub.age.avg()).from(memberSub)))
+                .from(member)
+                .orderBy(member.username.asc())
+                .fetch();
+
+        assertThat(rewritten).hasSameSizeAs(original);
+        for (int i = 0; i < original.size(); i++) {
+            assertThat(rewritten.get(i).toArray()).containsExactly(original.get(i).toArray());
+        }
+    }
+
+    private void assertSameMembers(Predicate predicate) {
+        List<Member> original = query.selectFrom(member).where(predicate).orderBy(member.id.asc()).fetch();
+        List<Member> rewritten = query.selectFrom(member).where(rewriter.rewrite(predicate)).orderBy(member.id.asc()).fetch();
+        assertThat(rewritten).containsExactlyElementsOf(original);
+    }
+}
@@ -0,0 +1,71 @@
+package study.querydsl.repository;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.TeamMembersDto;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Transactional
+class TeamJpaRepositoryTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    TeamJpaRepository teamJpaRepository;
+
+    @Test
+    void pageTeamsThenLoadMembers(){
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        Team teamC = new Team("teamC");
+        em.persist(teamA);
+        em.persist(teamB);
+        em.persist(teamC);
+        em.persist(new Member("member1", 10, teamA));
+        em.persist(new Member("member2", 20, teamA));
+        em.persist(new Member("member3", 30, teamA));
+        em.persist(new Member("member4", 40, teamB));
+        em.persist(new Member("member5", 50, teamC));
+        em.flush();
+        em.clear();
+
+        Statistics statistics = em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<TeamMembersDto> page = teamJpaRepository.findTeamsWithMembers(0, 2);
+
+        //팀 페이지 1번 + 회원 in 1번. 팀 수만큼 늘지 않는다
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        //컬렉션 fetch join 과 달리 회원 수만큼 팀이 중복되지 않는다
+        assertThat(page).extracting("teamName").containsExactly("teamA", "teamB");
+        assertThat(page.get(0).getMembers()).extracting("username")
+                .containsExactly("member1", "member2", "member3");
+        assertThat(page.get(1).getMembers()).extracting("username").containsExactly("member4");
+
+        statistics.clear();
+        List<TeamMembersDto> next = teamJpaRepository.findTeamsWithMembers(2, 2);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        assertThat(next).extracting("teamName").containsExactly("teamC");
+        assertThat(next.get(0).getMembers()).extracting("username").containsExactly("member5");
+    }
+
+    @Test
+    void emptyPage(){
+        Statistics statistics = em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        assertThat(teamJpaRepository.findTeamsWithMembers(10_000, 20)).isEmpty();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+}
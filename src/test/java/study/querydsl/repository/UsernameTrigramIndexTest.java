@@ -0,0 +1,166 @@
+package study.querydsl.repository;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.cache.CacheInvalidation;
+import study.querydsl.cache.CacheInvalidationBus;
+import study.querydsl.cache.LoopbackCacheInvalidationBus;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SpringBootTest
+@Transactional
+class UsernameTrigramIndexTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+    @Autowired
+    UsernameTrigramIndex usernameIndex;
+    @Autowired
+    JPAQueryFactory queryFactory;
+    @Autowired
+    EntityManagerFactory emf;
+
+    @Test
+    void usernameContains(){
+        Team teamA = new Team("teamA");
+        em.persist(teamA);
+        memberJpaRepository.save(new Member("member1", 10, teamA));
+        memberJpaRepository.save(new Member("member2", 20, teamA));
+        memberJpaRepository.save(new Member("member12", 30, teamA));
+        em.flush();
+        //저장 이벤트는 커밋 후에 반영되므로 테스트에서는 직접 다시 읽는다
+        usernameIndex.reload();
+
+        assertThat(usernameIndex.search("ber1")).hasValueSatisfying(ids -> assertThat(ids).hasSize(2));
+        assertThat(usernameIndex.search("r1")).isEmpty();
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsernameContains("ber1");
+        assertThat(memberJpaRepository.search(condition)).extracting("username")
+                .containsExactlyInAnyOrder("member1", "member12");
+
+        //색인을 쓸 수 없는 짧은 검색어는 like 검색으로 같은 결과를 낸다
+        condition.setUsernameContains("12");
+        assertThat(memberJpaRepository.search(condition)).extracting("username")
+                .containsExactly("member12");
+    }
+
+    @Test
+    void bulkUpdate(){
+        memberJpaRepository.save(new Member("member1", 10));
+        memberJpaRepository.save(new Member("member2", 40));
+        em.flush();
+
+        memberJpaRepository.bulkUpdateUsername("비회원1", 28);
+        usernameIndex.reload();
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsernameContains("비회원");
+        assertThat(memberJpaRepository.search(condition)).extracting("age").containsExactly(10);
+        condition.setUsernameContains("member");
+        assertThat(memberJpaRepository.search(condition)).extracting("age").containsExactly(40);
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void persistWithoutSaveIsIndexed(@Autowired PlatformTransactionManager transactionManager,
+                                     @Autowired JdbcTemplate jdbcTemplate){
+        try {
+            //InitMember 처럼 save() 를 거치지 않고 넣은 회원도 커밋 후에 색인에 들어간다
+            new TransactionTemplate(transactionManager)
+                    .executeWithoutResult(status -> em.persist(new Member("idxPersisted", 10)));
+
+            MemberSearchCondition condition = new MemberSearchCondition();
+            condition.setUsernameContains("Persisted");
+            assertThat(usernameIndex.search("Persisted")).hasValueSatisfying(ids -> assertThat(ids).hasSize(1));
+            assertThat(memberJpaRepository.search(condition)).extracting("username").containsExactly("idxPersisted");
+        } finally {
+            jdbcTemplate.update("delete from member where username = 'idxPersisted'");
+            usernameIndex.reload();
+        }
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void teamChangesAreIgnored(@Autowired PlatformTransactionManager transactionManager,
+                               @Autowired JdbcTemplate jdbcTemplate){
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        try {
+            //Team 도 2차 캐시에 있어서 커밋 후 이벤트가 이 색인의 리스너에도 온다
+            Long teamId = tx.execute(status -> {
+                Team team = new Team("idxTeam");
+                em.persist(team);
+                em.persist(new Member("idxTeamMember", 10, team));
+                return team.getId();
+            });
+            tx.executeWithoutResult(status -> em.find(Team.class, teamId).setName("idxTeamRenamed"));
+
+            assertThat(usernameIndex.search("TeamMember")).hasValueSatisfying(ids -> assertThat(ids).hasSize(1));
+            MemberSearchCondition condition = new MemberSearchCondition();
+            condition.setTeamName("idxTeamRenamed");
+            assertThat(memberJpaRepository.search(condition)).extracting("username").containsExactly("idxTeamMember");
+        } finally {
+            jdbcTemplate.update("delete from member where username = 'idxTeamMember'");
+            jdbcTemplate.update("delete from team where name like 'idxTeam%'");
+            emf.getCache().evictAll();
+            usernameIndex.reload();
+        }
+    }
+
+    @Test
+    void tooManyCandidatesFallBackToLike(){
+        em.persist(new Member("member1", 10));
+        em.persist(new Member("member12", 20));
+        em.flush();
+        UsernameTrigramIndex small = new UsernameTrigramIndex(queryFactory, emf, new LoopbackCacheInvalidationBus(),
+                false, 3, 1);
+        small.reload();
+
+        assertThat(small.search("member12")).hasValueSatisfying(ids -> assertThat(ids).hasSize(1));
+        assertThat(small.search("ber1")).isEmpty();
+    }
+
+    @Test
+    void notUsedWhenOtherWritersExist(){
+        em.persist(new Member("member1", 10));
+        em.flush();
+        CacheInvalidationBus distributed = new CacheInvalidationBus() {
+            @Override
+            public void publish(CacheInvalidation invalidation) {
+            }
+
+            @Override
+            public void subscribe(Consumer<CacheInvalidation> listener) {
+            }
+
+            @Override
+            public void unsubscribe(Consumer<CacheInvalidation> listener) {
+            }
+        };
+        UsernameTrigramIndex multiNode = new UsernameTrigramIndex(queryFactory, emf, distributed, false, 3, 1000);
+        UsernameTrigramIndex sharded = new UsernameTrigramIndex(queryFactory, emf, new LoopbackCacheInvalidationBus(),
+                true, 3, 1000);
+        multiNode.reload();
+        sharded.reload();
+
+        assertThat(multiNode.search("member1")).isEmpty();
+        assertThat(sharded.search("member1")).isEmpty();
+    }
+}
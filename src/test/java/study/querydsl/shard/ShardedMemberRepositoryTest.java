@@ -0,0 +1,191 @@
+package study.querydsl.shard;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+import study.querydsl.dto.TeamMembersDto;
+import study.querydsl.repository.MemberArchiver;
+import study.querydsl.repository.MemberJpaRepository;
+import study.querydsl.repository.MemberUpdateBuffer;
+import study.querydsl.repository.TeamJpaRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "shard.enabled=true",
+        "shard.urls=jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1",
+        "member.write-behind.flush-interval-ms=3600000"
+})
+class ShardedMemberRepositoryTest {
+
+    @Autowired
+    ShardedMemberRepository shardedMemberRepository;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+    @Autowired
+    ShardRouter shardRouter;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TeamJpaRepository teamJpaRepository;
+    @Autowired
+    MemberArchiver memberArchiver;
+    @Autowired
+    MemberUpdateBuffer memberUpdateBuffer;
+
+    @AfterEach
+    void cleanUp(){
+        for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+            ShardContext.call(shard, () -> {
+                jdbcTemplate.update("delete from member_archive");
+                jdbcTemplate.update("delete from member");
+                jdbcTemplate.update("delete from team");
+                return null;
+            });
+        }
+    }
+
+    @Test
+    void routeAndScatterGather(){
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        shardedMemberRepository.saveTeam(teamA);
+        shardedMemberRepository.saveTeam(teamB);
+        assertThat(shardRouter.shardOf(teamA.getId())).isNotEqualTo(shardRouter.shardOf(teamB.getId()));
+
+        shardedMemberRepository.save(new Member("member1", 10, teamA));
+        shardedMemberRepository.save(new Member("member2", 20, teamA));
+        shardedMemberRepository.save(new Member("member3", 30, teamB));
+        shardedMemberRepository.save(new Member("member4", 40, teamB));
+
+        //팀 하나만 찾으면 그 팀의 shard 에서만 실행된다
+        MemberSearchCondition single = new MemberSearchCondition();
+        single.setTeamId(teamB.getId());
+        assertThat(memberJpaRepository.search(single)).extracting("username")
+                .containsExactly("member3", "member4");
+
+        //shard 하나에는 팀 하나의 회원만 있다
+        Long count = ShardContext.call(shardRouter.shardOf(teamA.getId()),
+                () -> jdbcTemplate.queryForObject("select count(*) from member", Long.class));
+        assertThat(count).isEqualTo(2);
+
+        MemberSearchCondition all = new MemberSearchCondition();
+        all.setAgeGoe(15);
+        assertThat(memberJpaRepository.search(all)).extracting("username")
+                .containsExactlyInAnyOrder("member2", "member3", "member4");
+
+        List<MemberTeamDto> top = memberJpaRepository.searchTop(new MemberSearchCondition(),
+                Sort.by(Sort.Order.desc("age"), Sort.Order.asc("username")), 3);
+        assertThat(top).extracting("username").containsExactly("member4", "member3", "member2");
+
+        //keyset 페이지와 스트림도 모든 shard 를 id 순서로 이어서 읽는다
+        assertThat(memberJpaRepository.searchAfter(new MemberSearchCondition(), 0L, 3)).extracting("username")
+                .containsExactly("member1", "member2", "member3");
+        assertThat(memberJpaRepository.searchStream(new MemberSearchCondition(), 1).collectList().block())
+                .extracting("username")
+                .containsExactly("member1", "member2", "member3", "member4");
+        assertThat(memberJpaRepository.countUpTo(Long.MAX_VALUE)).isEqualTo(4);
+    }
+
+    @Test
+    void findByIdAndUsernameOnEveryShard(){
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        shardedMemberRepository.saveTeam(teamA);
+        shardedMemberRepository.saveTeam(teamB);
+        Member member1 = new Member("member1", 10, teamA);
+        Member member2 = new Member("member2", 20, teamB);
+        shardedMemberRepository.save(member1);
+        shardedMemberRepository.save(member2);
+
+        //0번이 아닌 shard 의 회원도 id 로 찾는다
+        assertThat(memberJpaRepository.findById(member1.getId())).get().extracting("username").isEqualTo("member1");
+        assertThat(memberJpaRepository.findById(member2.getId())).get().extracting("username").isEqualTo("member2");
+        assertThat(memberJpaRepository.findById(Long.MAX_VALUE)).isEmpty();
+
+        assertThat(memberJpaRepository.findAll()).extracting("username").containsExactlyInAnyOrder("member1", "member2");
+        assertThat(memberJpaRepository.findByUsername_Querydsl("member2")).extracting("id").containsExactly(member2.getId());
+        assertThat(memberJpaRepository.searchByBuilder(new MemberSearchCondition())).extracting("username")
+                .containsExactlyInAnyOrder("member1", "member2");
+
+        //팀은 shard 와 상관없이 id 순서로 페이징된다
+        List<TeamMembersDto> teams = teamJpaRepository.findTeamsWithMembers(0, 10);
+        assertThat(teams).extracting("teamId").isSorted()
+                .containsExactlyInAnyOrder(teamA.getId(), teamB.getId());
+        assertThat(teams).filteredOn("teamName", "teamB").flatExtracting("members").extracting("username")
+                .containsExactly("member2");
+        assertThat(teamJpaRepository.findTeamsWithMembers(1, 10)).extracting("teamId")
+                .containsExactly(teams.get(1).getTeamId());
+    }
+
+    @Test
+    void bulkUpdateOnEveryShard(){
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        shardedMemberRepository.saveTeam(teamA);
+        shardedMemberRepository.saveTeam(teamB);
+        shardedMemberRepository.save(new Member("member1", 10, teamA));
+        shardedMemberRepository.save(new Member("member2", 20, teamB));
+        shardedMemberRepository.save(new Member("member3", 30, teamB));
+
+        long count = memberJpaRepository.bulkUpdateUsername("young", 25);
+
+        assertThat(count).isEqualTo(2);
+        assertThat(memberJpaRepository.findByUsername("young")).extracting("age").containsExactlyInAnyOrder(10, 20);
+    }
+
+    @Test
+    void archiveOnEveryShard(){
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        shardedMemberRepository.saveTeam(teamA);
+        shardedMemberRepository.saveTeam(teamB);
+        shardedMemberRepository.save(new Member("member1", 10, teamA));
+        shardedMemberRepository.save(new Member("member2", 20, teamB));
+        shardedMemberRepository.save(new Member("member3", 30, teamB));
+        for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+            ShardContext.call(shard, () -> jdbcTemplate.update(
+                    "update member set last_active_at = ? where username in ('member1', 'member2')",
+                    LocalDateTime.of(1990, 1, 1, 0, 0)));
+        }
+
+        long archived = memberArchiver.archiveInactiveBefore(LocalDateTime.of(2000, 1, 1, 0, 0));
+
+        assertThat(archived).isEqualTo(2);
+        assertThat(memberJpaRepository.findAll()).extracting("username").containsExactly("member3");
+        //보관 행은 회원이 있던 shard 에 남는다
+        Long archivedInB = ShardContext.call(shardRouter.shardOf(teamB.getId()),
+                () -> jdbcTemplate.queryForObject("select count(*) from member_archive", Long.class));
+        assertThat(archivedInB).isEqualTo(1);
+    }
+
+    @Test
+    void bufferedUpdatesAreWrittenToTheirShard(){
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        shardedMemberRepository.saveTeam(teamA);
+        shardedMemberRepository.saveTeam(teamB);
+        Member member1 = new Member("member1", 10, teamA);
+        Member member2 = new Member("member2", 20, teamB);
+        shardedMemberRepository.save(member1);
+        shardedMemberRepository.save(member2);
+
+        memberUpdateBuffer.changeAge(member1.getId(), 11);
+        memberUpdateBuffer.changeAge(member2.getId(), 21);
+        int written = memberUpdateBuffer.flush();
+
+        assertThat(written).isEqualTo(2);
+        assertThat(memberUpdateBuffer.getPendingCount()).isZero();
+        assertThat(memberJpaRepository.findAll()).extracting("age").containsExactlyInAnyOrder(11, 21);
+    }
+}
@@ -0,0 +1,67 @@
+package study.querydsl.slowquery;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.entity.Member;
+import study.querydsl.entity.Team;
+import study.querydsl.repository.MemberJpaRepository;
+
+import javax.persistence.EntityManager;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SpringBootTest(properties = "slow-query.threshold-ms=0")
+@Transactional
+class SlowQueryListenerTest {
+
+    @Autowired
+    EntityManager em;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+    @Autowired
+    SlowQueryLog slowQueryLog;
+
+    @Test
+    void captureWithExplain() throws InterruptedException {
+        Team teamA = new Team("teamA");
+        em.persist(teamA);
+        em.persist(new Member("member1", 10, teamA));
+        em.flush();
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("teamA");
+        memberJpaRepository.search(condition);
+
+        SlowQuery last = slowQueryLog.recent().get(0);
+        assertThat(last.getCaller()).isEqualTo("MemberJpaRepository.searchInShard");
+        //파라미터 값은 남기지 않는다
+        assertThat(last.getSql()).contains("?").doesNotContain("teamA");
+        //EXPLAIN 은 별도 스레드에서 채워진다
+        assertThat(awaitPlan(last)).containsIgnoringCase("member");
+    }
+
+    @Test
+    void failedStatementIsNotExplained() throws InterruptedException {
+        assertThatThrownBy(() -> jdbcTemplate.queryForList("select no_such_column from member"))
+                .isInstanceOf(BadSqlGrammarException.class);
+
+        SlowQuery last = slowQueryLog.recent().get(0);
+        assertThat(last.getSql()).contains("no_such_column");
+        Thread.sleep(200);
+        assertThat(last.getPlan()).isNull();
+    }
+
+    private String awaitPlan(SlowQuery slowQuery) throws InterruptedException {
+        for (int i = 0; i < 100 && slowQuery.getPlan() == null; i++) {
+            Thread.sleep(50);
+        }
+        return slowQuery.getPlan();
+    }
+}
@@ -0,0 +1,53 @@
+package study.querydsl.startup;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.context.ConfigurableApplicationContext;
+import study.querydsl.QuerydslApplication;
+import study.querydsl.controller.InitMember;
+import study.querydsl.repository.MemberReadModel;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.*;
+
+class StartupBudgetTest {
+
+    //기동 시간이 이 값을 넘으면 실패한다
+    static final Duration BUDGET = Duration.ofSeconds(20);
+
+    @Test
+    void backgroundSeedingStartsWithinBudget() throws Exception {
+        SpringApplication application = new SpringApplication(QuerydslApplication.class);
+        application.setApplicationStartup(new BufferingApplicationStartup(4096));
+
+        try (ConfigurableApplicationContext context = application.run(
+                "--server.port=0",
+                "--spring.profiles.active=local",
+                "--init.mode=background",
+                "--init.member-count=10000",
+                "--logging.level.org.hibernate.SQL=info")) {
+            StartupReport report = context.getBean(StartupReport.class);
+
+            assertThat(report.getTimeToReady()).isLessThan(BUDGET);
+            assertThat(report.getPhase("bean:entityManagerFactory")).isPresent();
+
+            //seed 가 끝날 때까지는 트래픽을 받지 않는다
+            InitMember initMember = context.getBean(InitMember.class);
+            ApplicationAvailability availability = context.getBean(ApplicationAvailability.class);
+            long deadline = System.currentTimeMillis() + BUDGET.toMillis();
+            while (availability.getReadinessState() != ReadinessState.ACCEPTING_TRAFFIC
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(availability.getReadinessState()).isEqualTo(ReadinessState.ACCEPTING_TRAFFIC);
+            assertThat(initMember.isSeeded()).isTrue();
+            assertThat(report.getPhase(StartupReport.SEED_STEP)).isPresent();
+            //seed 한 회원이 읽기 모델에도 있다
+            assertThat(context.getBean(MemberReadModel.class).size()).isEqualTo(10000);
+        }
+    }
+}